@@ -1,2 +1,4 @@
 module neuralnets {
+   requires static jdk.management; // optional; only AllocationTester11 reads the per-thread allocation counters
+   requires static jdk.incubator.vector; // optional; only used by SimdKernels if present at runtime
 }
\ No newline at end of file
@@ -0,0 +1,323 @@
+package neuralnets;
+
+/**
+ * The activation (wrapper) functions a layer of neurons can use, each with its
+ * derivative. Every function works on a whole range of neurons at a time, so the
+ * choice of function is made once per layer and the loop inside is plain,
+ * monomorphic code that the JIT can inline and vectorize; a ReLU layer costs a
+ * compare per neuron instead of a call to Math.exp.
+ *
+ * Every derivative is written in terms of the function's own output (the activation),
+ * so back propagation never has to recompute the function:
+ *    sigmoid            F' = F(1 - F)
+ *    tanh               F' = 1 - F^2
+ *    relu               F' = 1 if F > 0, otherwise 0
+ *    leaky relu         F' = 1 if F > 0, otherwise LEAK
+ *
+ * Methods included:
+ * Activation fromName(String name)
+ * void       activate(double[] thetas, double[] activs, int first, int last)
+ * void       multiplyByDerivative(double[] activs, double[] psis, int first, int last)
+ * void       activate(float[] thetas, float[] activs, int first, int last)
+ * void       multiplyByDerivative(float[] activs, float[] psis, int first, int last)
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+public enum Activation
+{
+   /**
+    * The sigmoid, [R] --> (0,1)
+    */
+   SIGMOID("sigmoid")
+   {
+      @Override
+      public void activate(double[] thetas, double[] activs, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            activs[n] = 1.0 / (1.0 + Math.exp(-thetas[n]));
+         }
+      }
+
+      @Override
+      public void multiplyByDerivative(double[] activs, double[] psis, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            psis[n] *= activs[n] * (1.0 - activs[n]);
+         }
+      }
+
+      @Override
+      public void activate(float[] thetas, float[] activs, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            activs[n] = (float)(1.0 / (1.0 + Math.exp(-thetas[n])));
+         }
+      }
+
+      @Override
+      public void multiplyByDerivative(float[] activs, float[] psis, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            psis[n] *= activs[n] * (1.0f - activs[n]);
+         }
+      }
+   },
+
+   /**
+    * The sigmoid read from the interpolated table in FastSigmoid instead of Math.exp
+    * (within FastSigmoid.MAX_ERROR of SIGMOID)
+    */
+   FAST_SIGMOID("fastSigmoid")
+   {
+      @Override
+      public void activate(double[] thetas, double[] activs, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            activs[n] = FastSigmoid.sigmoid(thetas[n]);
+         }
+      }
+
+      @Override
+      public void multiplyByDerivative(double[] activs, double[] psis, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            psis[n] *= activs[n] * (1.0 - activs[n]);
+         }
+      }
+
+      @Override
+      public void activate(float[] thetas, float[] activs, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            activs[n] = (float)FastSigmoid.sigmoid(thetas[n]);
+         }
+      }
+
+      @Override
+      public void multiplyByDerivative(float[] activs, float[] psis, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            psis[n] *= activs[n] * (1.0f - activs[n]);
+         }
+      }
+   },
+
+   /**
+    * The hyperbolic tangent, [R] --> (-1,1)
+    */
+   TANH("tanh")
+   {
+      @Override
+      public void activate(double[] thetas, double[] activs, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            activs[n] = Math.tanh(thetas[n]);
+         }
+      }
+
+      @Override
+      public void multiplyByDerivative(double[] activs, double[] psis, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            psis[n] *= 1.0 - activs[n] * activs[n];
+         }
+      }
+
+      @Override
+      public void activate(float[] thetas, float[] activs, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            activs[n] = (float)Math.tanh(thetas[n]);
+         }
+      }
+
+      @Override
+      public void multiplyByDerivative(float[] activs, float[] psis, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            psis[n] *= 1.0f - activs[n] * activs[n];
+         }
+      }
+   },
+
+   /**
+    * The rectified linear unit, max(0, theta)
+    */
+   RELU("relu")
+   {
+      @Override
+      public void activate(double[] thetas, double[] activs, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            activs[n] = thetas[n] > 0.0 ? thetas[n] : 0.0;
+         }
+      }
+
+      @Override
+      public void multiplyByDerivative(double[] activs, double[] psis, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            psis[n] = activs[n] > 0.0 ? psis[n] : 0.0;
+         }
+      }
+
+      @Override
+      public void activate(float[] thetas, float[] activs, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            activs[n] = thetas[n] > 0.0f ? thetas[n] : 0.0f;
+         }
+      }
+
+      @Override
+      public void multiplyByDerivative(float[] activs, float[] psis, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            psis[n] = activs[n] > 0.0f ? psis[n] : 0.0f;
+         }
+      }
+   },
+
+   /**
+    * The leaky rectified linear unit, theta if positive, otherwise LEAK * theta,
+    * which keeps a small gradient flowing through neurons that are switched off
+    */
+   LEAKY_RELU("leakyRelu")
+   {
+      @Override
+      public void activate(double[] thetas, double[] activs, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            activs[n] = thetas[n] > 0.0 ? thetas[n] : LEAK * thetas[n];
+         }
+      }
+
+      @Override
+      public void multiplyByDerivative(double[] activs, double[] psis, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            psis[n] = activs[n] > 0.0 ? psis[n] : LEAK * psis[n];
+         }
+      }
+
+      @Override
+      public void activate(float[] thetas, float[] activs, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            activs[n] = thetas[n] > 0.0f ? thetas[n] : (float)LEAK * thetas[n];
+         }
+      }
+
+      @Override
+      public void multiplyByDerivative(float[] activs, float[] psis, int first, int last)
+      {
+         for (int n = first; n <= last; n++)
+         {
+            psis[n] = activs[n] > 0.0f ? psis[n] : (float)LEAK * psis[n];
+         }
+      }
+   };
+
+   public static final double LEAK = 0.01; // slope of the leaky relu for negative thetas
+
+   private final String name; // the name used in configuration files
+
+   /**
+    * Creates an activation function with the name configuration files use for it
+    *
+    * @param name the configuration file name
+    */
+   Activation(String name)
+   {
+      this.name = name;
+   }
+
+   /**
+    * Finds the activation function with a given configuration file name
+    *
+    * @param name the name, for example "sigmoid" or "relu"
+    * @return the activation function with that name
+    * @throws RuntimeException if no activation function has that name
+    */
+   public static Activation fromName(String name)
+   {
+      for (Activation activation : values())
+      {
+         if (activation.name.equals(name))
+         {
+            return activation;
+         }
+      }
+      throw new RuntimeException("Invalid activation function: \"" + name + "\"");
+   }
+
+   /**
+    * Computes the activations of a range of neurons from their thetas
+    *
+    * @param thetas the thetas (sums of weighted inputs) of the neurons
+    * @param activs where the activations are stored
+    * @param first the index of the first neuron
+    * @param last the index of the last neuron (inclusive)
+    */
+   public abstract void activate(double[] thetas, double[] activs, int first, int last);
+
+   /**
+    * Multiplies the psi (or bigOmega) of each of a range of neurons by the derivative
+    * of this function at that neuron, found from the neuron's activation
+    *
+    * @param activs the activations of the neurons
+    * @param psis the values to multiply, changed in place
+    * @param first the index of the first neuron
+    * @param last the index of the last neuron (inclusive)
+    */
+   public abstract void multiplyByDerivative(double[] activs, double[] psis, int first, int last);
+
+   /**
+    * Computes the activations of a range of neurons from their thetas, in single precision
+    *
+    * @param thetas the thetas (sums of weighted inputs) of the neurons
+    * @param activs where the activations are stored
+    * @param first the index of the first neuron
+    * @param last the index of the last neuron (inclusive)
+    */
+   public abstract void activate(float[] thetas, float[] activs, int first, int last);
+
+   /**
+    * Multiplies the psi (or bigOmega) of each of a range of neurons by the derivative
+    * of this function at that neuron, in single precision
+    *
+    * @param activs the activations of the neurons
+    * @param psis the values to multiply, changed in place
+    * @param first the index of the first neuron
+    * @param last the index of the last neuron (inclusive)
+    */
+   public abstract void multiplyByDerivative(float[] activs, float[] psis, int first, int last);
+
+   @Override
+   public String toString()
+   {
+      return name;
+   }
+
+} // public enum Activation
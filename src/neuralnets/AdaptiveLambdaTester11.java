@@ -0,0 +1,101 @@
+package neuralnets;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A tester class that trains each of a list of configuration files twice, once with
+ * the file's fixed lambda and once with adaptive lambda, starting from the same weights,
+ * and writes how many iterations each took to converge to adaptiveLambdaReport.txt.
+ * The two runs of a file are logged to "logfixed_" and "logadaptive_" + the file name.
+ *
+ * Usage: java neuralnets.AdaptiveLambdaTester11 growth shrink tolerance [configuration files]
+ * (a.txt, b.txt and d.txt if no files are given)
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+public class AdaptiveLambdaTester11
+{
+   /**
+    * Main method that trains every configuration with both kinds of lambda and writes the report.
+    *
+    * @param args the growth and shrink factors of lambda and the roll back tolerance, then the names of the configuration files to compare
+    * @throws FileNotFoundException
+    * @throws IOException BufferedWriter (output log file writing) failure
+    */
+   public static void main(String[] args) throws FileNotFoundException, IOException
+   {
+      double growth = Double.parseDouble(args[0]);
+      double shrink = Double.parseDouble(args[1]);
+      double tolerance = Double.parseDouble(args[2]);
+      String[] fileNames = args.length > 3 ? Arrays.copyOfRange(args, 3, args.length) : new String[] {"a.txt", "b.txt", "d.txt"};
+
+      BufferedWriter report = new BufferedWriter(new FileWriter("adaptiveLambdaReport.txt"));
+
+      report.write("Adaptive lambda: grows by " + growth + " after an epoch that is kept, "
+            + "shrinks by " + shrink + " and rolls back when it raises the total error by more than "
+            + tolerance * 100.0 + "%\n\n");
+
+      for (String fileName : fileNames)
+      {
+         PerceptronConfigurer11 config = new PerceptronConfigurer11(new File(fileName));
+
+         // both runs start from the weights in the file (or drawn from its seed)
+         double[][] initialWeights = new double[config.weights.length][];
+
+         for (int layer = 0; layer < initialWeights.length; layer++)
+         {
+            initialWeights[layer] = config.weights[layer].clone();
+         }
+
+         report.write(fileName + " (lambda " + config.lambda + ", errorThreshold " + config.errorThreshold 
+               + ", at most " + config.maxIterations + " iterations)\n");
+
+         for (int run = 0; run < 2; run++)
+         {
+            boolean adaptive = run == 1;
+            String name = adaptive ? "adaptive" : "fixed";
+
+            if (adaptive && !config.optimizerName.equals("sgd"))
+            {
+               report.write(String.format("   %-8s  skipped (adaptiveLambda only trains with the sgd optimizer, not " 
+                     + config.optimizerName + ")\n", name));
+            }
+            else
+            {
+               config.adaptiveLambda = adaptive;
+               config.lambdaGrowth = growth;
+               config.lambdaShrink = shrink;
+               config.lambdaTolerance = tolerance;
+               config.weights = new double[initialWeights.length][];
+
+               for (int layer = 0; layer < initialWeights.length; layer++)
+               {
+                  config.weights[layer] = initialWeights[layer].clone();
+               }
+
+               Perceptron11 network = new Perceptron11(config, "log" + name + "_" + fileName);
+               network.run();
+
+               report.write(String.format("   %-8s  iterations: %-7d  max error: %-12.6g  converged: %-3s  "
+                     + "final lambda: %-12.6g  epochs rolled back: %d\n",
+                     name, network.iterations, network.maxError,
+                     network.maxError < config.errorThreshold ? "yes" : "no",
+                     network.lambda, network.rollbacks));
+            } // else clause where lambda can be adapted with this file's optimizer
+         } // for (int run = 0; run < 2; run++)
+
+         report.write("\n");
+      } // for (String fileName : fileNames)
+
+      report.close();
+
+      System.out.println("Done. Comparison written to adaptiveLambdaReport.txt");
+   } // public static void main(String[] args) throws FileNotFoundException, IOException
+
+} // public class AdaptiveLambdaTester11
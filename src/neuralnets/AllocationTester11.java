@@ -0,0 +1,93 @@
+package neuralnets;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * A tester class that checks that single-threaded training allocates nothing once it is
+ * warmed up. Each configuration file is trained for WARM_UP_EPOCHS epochs (so that the JIT
+ * has compiled the training loop), and then for MEASURED_EPOCHS more, reading the JVM's
+ * count of the bytes this thread has allocated around each one. Every epoch is the one
+ * converge() runs (see Perceptron11.epoch): the training, the convergence check, and with
+ * adaptiveLambda the saved weights and the roll back. Left out are the termination test
+ * (which only writes to the log once training ends) and checkpoints (which copy the
+ * weights), so no checkpoint file is written. Diagnostics are never printed, since they
+ * build strings. Any measured epoch that allocates fails the test.
+ * The runs are logged to "logalloc_" + the file name, which stays empty.
+ *
+ * Usage: java neuralnets.AllocationTester11 [configuration files]
+ * (a.txt and d.txt if none are given)
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+public class AllocationTester11
+{
+   public static final int WARM_UP_EPOCHS = 2000;
+   public static final int MEASURED_EPOCHS = 100;
+
+   /**
+    * Main method that trains every configuration and checks the bytes each epoch allocates.
+    *
+    * @param args the names of the configuration files to check
+    * @throws FileNotFoundException
+    * @throws IOException BufferedWriter (output log file writing) failure
+    * @throws RuntimeException if a measured epoch allocates anything
+    */
+   public static void main(String[] args) throws FileNotFoundException, IOException
+   {
+      String[] fileNames = args.length > 0 ? args : new String[] {"a.txt", "d.txt"};
+
+      com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+      for (String fileName : fileNames)
+      {
+         PerceptronConfigurer11 config = new PerceptronConfigurer11(new File(fileName));
+
+         if (config.threads > 1 || config.hogwild)
+         {
+            System.out.println(fileName + ": skipped (the worker threads allocate their tasks; threads must be 1)");
+            continue;
+         }
+
+         config.printOutIteration = 1 << 30; // iteration 0 is the only one printed (and iter + printOutIteration cannot overflow)
+         config.checkpointFilename = null;
+
+         Perceptron11 network = new Perceptron11(config, "logalloc_" + fileName);
+         network.propNetwork();
+         network.startEpochs();
+
+         int iter = 0;
+
+         for (int epoch = 0; epoch < WARM_UP_EPOCHS; epoch++)
+         {
+            network.epoch(iter);
+            iter += config.dataset.size();
+         }
+
+         long mostBytes = 0;
+
+         for (int epoch = 0; epoch < MEASURED_EPOCHS; epoch++)
+         {
+            long before = threadBean.getCurrentThreadAllocatedBytes();
+
+            network.epoch(iter);
+
+            mostBytes = Math.max(mostBytes, threadBean.getCurrentThreadAllocatedBytes() - before);
+            iter += config.dataset.size();
+         }
+
+         System.out.println(fileName + ": most bytes allocated in one of " + MEASURED_EPOCHS + " epochs: " + mostBytes);
+
+         if (mostBytes > 0)
+         {
+            throw new RuntimeException(fileName + " allocated " + mostBytes + " bytes in a warmed-up training epoch");
+         }
+      } // for (String fileName : fileNames)
+
+      System.out.println("Done. No warmed-up epoch allocated anything.");
+   } // public static void main(String[] args) throws FileNotFoundException, IOException
+
+} // public class AllocationTester11
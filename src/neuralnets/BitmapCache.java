@@ -0,0 +1,248 @@
+package neuralnets;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A directory of bitmaps that have already been decoded, preprocessed and scaled into input
+ * vectors, so that repeat runs over the same images skip DibDump1 and handProcess entirely.
+ *
+ * Each entry is named by the SHA-256 hash of the image file's bytes together with every
+ * setting that changes the vector (see key): changing a single byte of an image, or the
+ * color depth or processing of a configuration, gives a new name, so an out of date entry
+ * is never found, let alone used. KEY_VERSION is part of every name too, and is raised
+ * whenever the preprocessing itself changes, which leaves every older entry behind.
+ *
+ * DibDump1 keeps the headers of the bitmap it decoded last in static fields, which writeOut
+ * copies into every bitmap it writes (such as the outputs Perceptron11.createBitmap draws).
+ * So an entry also holds those fields as they stood once the image was processed, and
+ * restoreHeader puts them back on a hit, exactly as decoding the image would have.
+ *
+ * An entry is written in the same little-endian style as ModelFile:
+ *
+ *    int      MAGIC ("NNbc")
+ *    int      VERSION
+ *    int[HEADER_FIELDS] DibDump1's header fields (see header)
+ *    int      the number of pels, n
+ *    double[n] the scaled pels, row by row
+ *
+ * Entries are written to a temporary file and renamed into place, so a run that dies while
+ * writing one never leaves a partial entry; one that cannot be read is treated as missing.
+ *
+ * Methods included:
+ * BitmapCache(File directory)
+ * String   key(byte[] image, String settings)
+ * Entry    load(String key)
+ * void     save(String key, int[] header, double[] pels) throws IOException
+ * int[]    header()
+ * void     restoreHeader(int[] header)
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+final class BitmapCache
+{
+   static final int MAGIC = 0x63624E4E; // "NNbc" when read as little-endian bytes
+   static final int VERSION = 2;
+   static final int KEY_VERSION = 1; // raise whenever decoding, handProcess or scaling changes
+   static final int HEADER_FIELDS = 16; // the fields of DibDump1's BITMAPFILEHEADER and BITMAPINFOHEADER
+
+   private static final int HEADER_BYTES = (3 + HEADER_FIELDS) * Integer.BYTES;
+
+   private final File directory;
+
+   /**
+    * Creates a cache in a directory, which is made when the first entry is saved
+    *
+    * @param directory the directory that holds the entries
+    */
+   BitmapCache(File directory)
+   {
+      this.directory = directory;
+   }
+
+   /**
+    * Names the entry of an image processed with the given settings
+    *
+    * @param image the bytes of the image file
+    * @param settings every setting that changes the vector, such as the color depth and the processing
+    * @return the entry's name: the hex SHA-256 hash of the image, the settings and KEY_VERSION
+    */
+   static String key(byte[] image, String settings)
+   {
+      try
+      {
+         MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+         digest.update(image);
+         digest.update((" " + settings + " " + KEY_VERSION).getBytes(StandardCharsets.UTF_8));
+
+         StringBuilder name = new StringBuilder();
+
+         for (byte b : digest.digest())
+         {
+            name.append(String.format("%02x", b));
+         }
+
+         return name.toString();
+      } // try
+      catch (NoSuchAlgorithmException e)
+      {
+         throw new RuntimeException("SHA-256 is not available", e); // every Java platform must have it
+      }
+   } // static String key(byte[] image, String settings)
+
+   /**
+    * One cached bitmap: DibDump1's header fields and the scaled pels
+    */
+   static final class Entry
+   {
+      final int[] header; // see BitmapCache.header
+      final double[] pels; // the scaled pels, row by row
+
+      Entry(int[] header, double[] pels)
+      {
+         this.header = header;
+         this.pels = pels;
+      }
+   } // static final class Entry
+
+   /**
+    * Reads an entry
+    *
+    * @param key the entry's name (see key)
+    * @return the entry, or null if there is no entry or it cannot be read
+    */
+   Entry load(String key)
+   {
+      File file = new File(directory, key);
+
+      if (!file.isFile())
+      {
+         return null;
+      }
+
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+      {
+         ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+
+         if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+         {
+            return null;
+         }
+
+         int[] header = new int[HEADER_FIELDS];
+
+         for (int f = 0; f < HEADER_FIELDS; f++)
+         {
+            header[f] = buffer.getInt();
+         }
+
+         int numPels = buffer.getInt();
+
+         if (numPels < 0 || buffer.remaining() != (long)numPels * Double.BYTES)
+         {
+            return null;
+         }
+
+         double[] pels = new double[numPels];
+         buffer.asDoubleBuffer().get(pels);
+
+         return new Entry(header, pels);
+      } // try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+      catch (IOException e)
+      {
+         return null; // the image is simply processed again
+      }
+   } // Entry load(String key)
+
+   /**
+    * Writes an entry, atomically replacing it if it exists
+    *
+    * @param key the entry's name (see key)
+    * @param header DibDump1's header fields once the image was processed (see header)
+    * @param pels the scaled pels
+    * @throws IOException if the entry cannot be written
+    */
+   void save(String key, int[] header, double[] pels) throws IOException
+   {
+      Files.createDirectories(directory.toPath());
+
+      Path target = new File(directory, key).toPath();
+      Path temporary = target.resolveSibling(key + ".tmp");
+      ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + pels.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+      buffer.putInt(MAGIC).putInt(VERSION);
+
+      for (int field : header)
+      {
+         buffer.putInt(field);
+      }
+
+      buffer.putInt(pels.length);
+      buffer.asDoubleBuffer().put(pels);
+      buffer.rewind();
+
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+      {
+         while (buffer.hasRemaining())
+         {
+            channel.write(buffer);
+         }
+      }
+
+      Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   } // void save(String key, int[] header, double[] pels) throws IOException
+
+   /**
+    * Copies DibDump1's header fields, which describe the bitmap it decoded last
+    *
+    * @return the HEADER_FIELDS fields, in the order of the BITMAPFILEHEADER then the BITMAPINFOHEADER
+    */
+   static int[] header()
+   {
+      return new int[] {DibDump1.bmpFileHeader_bfType, DibDump1.bmpFileHeader_bfSize,
+            DibDump1.bmpFileHeader_bfReserved1, DibDump1.bmpFileHeader_bfReserved2, DibDump1.bmpFileHeader_bfOffBits,
+            DibDump1.bmpInfoHeader_biSize, DibDump1.bmpInfoHeader_biWidth, DibDump1.bmpInfoHeader_biHeight,
+            DibDump1.bmpInfoHeader_biPlanes, DibDump1.bmpInfoHeader_biBitCount, DibDump1.bmpInfoHeader_biCompression,
+            DibDump1.bmpInfoHeader_biSizeImage, DibDump1.bmpInfoHeader_biXPelsPerMeter,
+            DibDump1.bmpInfoHeader_biYPelsPerMeter, DibDump1.bmpInfoHeader_biClrUsed, DibDump1.bmpInfoHeader_biClrImportant};
+   }
+
+   /**
+    * Puts back DibDump1's header fields, as if it had just decoded the bitmap they describe
+    *
+    * @param header the fields, as returned by header()
+    */
+   static void restoreHeader(int[] header)
+   {
+      DibDump1.bmpFileHeader_bfType = header[0];
+      DibDump1.bmpFileHeader_bfSize = header[1];
+      DibDump1.bmpFileHeader_bfReserved1 = header[2];
+      DibDump1.bmpFileHeader_bfReserved2 = header[3];
+      DibDump1.bmpFileHeader_bfOffBits = header[4];
+      DibDump1.bmpInfoHeader_biSize = header[5];
+      DibDump1.bmpInfoHeader_biWidth = header[6];
+      DibDump1.bmpInfoHeader_biHeight = header[7];
+      DibDump1.bmpInfoHeader_biPlanes = header[8];
+      DibDump1.bmpInfoHeader_biBitCount = header[9];
+      DibDump1.bmpInfoHeader_biCompression = header[10];
+      DibDump1.bmpInfoHeader_biSizeImage = header[11];
+      DibDump1.bmpInfoHeader_biXPelsPerMeter = header[12];
+      DibDump1.bmpInfoHeader_biYPelsPerMeter = header[13];
+      DibDump1.bmpInfoHeader_biClrUsed = header[14];
+      DibDump1.bmpInfoHeader_biClrImportant = header[15];
+   } // static void restoreHeader(int[] header)
+
+} // final class BitmapCache
@@ -0,0 +1,217 @@
+package neuralnets;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A snapshot of a training run between two epochs: everything converge() needs to
+ * carry on exactly where the run left off (the iteration count, lambda, the weights and
+ * the optimizer's state). Written in the same little-endian style as ModelFile:
+ *
+ *    int      MAGIC ("NNck")
+ *    int      VERSION
+ *    int      iterations
+ *    double   lambda
+ *    int      number of layers, L (including the input layer)
+ *    int[L]   numActivs
+ *    then each layer of weights in turn as doubles, packed as in memory
+ *    long     the optimizer's step count
+ *    int      the number of kinds of per-weight optimizer state, S (0 for sgd)
+ *    then S sets of arrays, each laid out exactly like the weights
+ *
+ * save() writes to a temporary file next to the checkpoint, forces it to disk, and then
+ * renames it over the checkpoint in one atomic step, so a crash at any moment leaves
+ * either the old checkpoint or the new one, never a partly written file.
+ *
+ * Methods included:
+ * Checkpoint(int iterations, double lambda, int[] numActivs, double[][] weights, long steps, double[][][] optimizerState)
+ * Checkpoint load(File file) throws IOException
+ * void       save(File file) throws IOException
+ * double[][] readLayers(ByteBuffer buffer, int[] numActivs)
+ * void       writeLayers(FileChannel channel, double[][] layers) throws IOException
+ * void       writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+final class Checkpoint
+{
+   static final int MAGIC = 0x6B634E4E; // "NNck" when read as little-endian bytes
+   static final int VERSION = 2;
+
+   final int iterations; // the number of iterations trained so far
+   final double lambda; // the learning rate at the time of the snapshot
+   final int[] numActivs; // numActivs[n] = number of activations in layer n (layer 0 = inputs)
+   final double[][] weights; // indices: layer, right * numActivs[layer] + left
+   final long steps; // the optimizer's step count
+   final double[][][] optimizerState; // indices: kind of state, layer, weight (packed like the weights)
+
+   /**
+    * Creates a checkpoint holding the given state (without copying it)
+    *
+    * @param iterations the number of iterations trained so far
+    * @param lambda the learning rate
+    * @param numActivs numActivs[n] = number of activations in layer n (layer 0 = inputs)
+    * @param weights the weights, packed as in Perceptron11
+    * @param steps the optimizer's step count
+    * @param optimizerState the optimizer's per-weight state (see Optimizer.state())
+    */
+   Checkpoint(int iterations, double lambda, int[] numActivs, double[][] weights, long steps, double[][][] optimizerState)
+   {
+      this.iterations = iterations;
+      this.lambda = lambda;
+      this.numActivs = numActivs;
+      this.weights = weights;
+      this.steps = steps;
+      this.optimizerState = optimizerState;
+   }
+
+   /**
+    * Reads a checkpoint
+    *
+    * @param file the checkpoint file
+    * @return the state in the file
+    * @throws IOException if the file cannot be read
+    * @throws RuntimeException if the file is not a checkpoint or has an unknown version
+    */
+   static Checkpoint load(File file) throws IOException
+   {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+      {
+         ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+
+         int version = buffer.getInt() == MAGIC ? buffer.getInt() : -1;
+         
+         if (version != VERSION)
+         {
+            throw new RuntimeException("Not a version " + VERSION + " checkpoint: \"" + file + "\"");
+         }
+
+         int iterations = buffer.getInt();
+         double lambda = buffer.getDouble();
+         int[] numActivs = new int[buffer.getInt()];
+
+         for (int layer = 0; layer < numActivs.length; layer++)
+         {
+            numActivs[layer] = buffer.getInt();
+         }
+
+         double[][] weights = readLayers(buffer, numActivs);
+         long steps = buffer.getLong();
+         double[][][] optimizerState = new double[buffer.getInt()][][];
+
+         for (int kind = 0; kind < optimizerState.length; kind++)
+         {
+            optimizerState[kind] = readLayers(buffer, numActivs);
+         }
+
+         return new Checkpoint(iterations, lambda, numActivs, weights, steps, optimizerState);
+      } // try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+   } // static Checkpoint load(File file) throws IOException
+
+   /**
+    * Writes this checkpoint, atomically replacing the file if it exists
+    *
+    * @param file the checkpoint file
+    * @throws IOException if the file cannot be written
+    */
+   void save(File file) throws IOException
+   {
+      Path target = file.toPath();
+      Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+      {
+         ByteBuffer header = ByteBuffer.allocate(4 * Integer.BYTES + Double.BYTES + numActivs.length * Integer.BYTES)
+               .order(ByteOrder.LITTLE_ENDIAN);
+
+         header.putInt(MAGIC).putInt(VERSION).putInt(iterations).putDouble(lambda).putInt(numActivs.length);
+
+         for (int layer = 0; layer < numActivs.length; layer++)
+         {
+            header.putInt(numActivs[layer]);
+         }
+
+         writeFully(channel, header);
+         writeLayers(channel, weights);
+
+         ByteBuffer optimizerHeader = ByteBuffer.allocate(Long.BYTES + Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+         optimizerHeader.putLong(steps).putInt(optimizerState.length);
+         writeFully(channel, optimizerHeader);
+
+         for (double[][] kind : optimizerState)
+         {
+            writeLayers(channel, kind);
+         }
+
+         channel.force(true);
+      } // try (FileChannel channel = ...)
+
+      Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   } // void save(File file) throws IOException
+
+   /**
+    * Reads one array per layer of weights, each the size of the layer, from a buffer
+    *
+    * @param buffer the buffer, positioned at the first value
+    * @param numActivs numActivs[n] = number of activations in layer n
+    * @return the arrays; the buffer is left positioned after them
+    */
+   private static double[][] readLayers(ByteBuffer buffer, int[] numActivs)
+   {
+      double[][] layers = new double[numActivs.length - 1][];
+
+      for (int layer = 0; layer < layers.length; layer++)
+      {
+         layers[layer] = new double[numActivs[layer] * numActivs[layer + 1]];
+         buffer.asDoubleBuffer().get(layers[layer]);
+         buffer.position(buffer.position() + layers[layer].length * Double.BYTES);
+      }
+
+      return layers;
+   }
+
+   /**
+    * Writes one array per layer of weights, in order, as doubles
+    *
+    * @param channel the channel to write to
+    * @param layers the arrays, packed like the weights
+    * @throws IOException if the channel cannot be written
+    */
+   private static void writeLayers(FileChannel channel, double[][] layers) throws IOException
+   {
+      for (double[] layer : layers)
+      {
+         ByteBuffer block = ByteBuffer.allocate(layer.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+         block.asDoubleBuffer().put(layer);
+         writeFully(channel, block);
+      }
+   }
+
+   /**
+    * Writes the whole of a buffer, from the start, to a channel
+    *
+    * @param channel the channel to write to
+    * @param buffer the buffer to write
+    * @throws IOException if the channel cannot be written
+    */
+   private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+   {
+      buffer.rewind();
+
+      while (buffer.hasRemaining())
+      {
+         channel.write(buffer);
+      }
+   }
+
+} // final class Checkpoint
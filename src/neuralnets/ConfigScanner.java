@@ -0,0 +1,363 @@
+package neuralnets;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a configuration file the way PerceptronConfigurer11 used java.util.Scanner: whole
+ * lines with nextLine, and whitespace separated tokens with next, nextInt and nextDouble,
+ * each of which leaves the position just after what it read (so a nextLine after a number
+ * returns the rest of the number's line).
+ *
+ * Scanner matches every token against locale-aware regular expressions and creates a String
+ * for each, which dominates loading files with millions of numbers. This reads the whole file
+ * into one byte array and parses numbers straight from the bytes. A decimal number with at
+ * most 15 significant digits and 22 decimal places (which covers ordinary weights, inputs and
+ * targets) is one long divided by an exact power of ten, which rounds to the same double as
+ * Double.parseDouble; anything else (exponents, longer numbers) is handed to Double.parseDouble.
+ * nextDoubles fills a block of an array without allocating anything.
+ *
+ * Methods included:
+ * ConfigScanner(File file) throws FileNotFoundException, IOException
+ * boolean hasNext()
+ * String  nextLine()
+ * String  next()
+ * int     nextInt()
+ * double  nextDouble()
+ * void    nextDoubles(double[] values, int offset, int count)
+ * int     startToken()
+ * int     tokenEnd(int start)
+ * double  parseDouble(int start, int end)
+ * RuntimeException mismatch(String expected, int start, int end)
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+final class ConfigScanner
+{
+   private static final int MAX_EXACT_DIGITS = 15; // every integer below 10^15 is an exact double
+   private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+         1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22}; // all exact doubles
+
+   private final String fileName; // for error messages
+   private final byte[] bytes; // the whole file
+   private int position; // the index of the next byte to read
+
+   /**
+    * Reads a file into memory, ready to be scanned from the start
+    *
+    * @param file the file to read
+    * @throws FileNotFoundException if the file does not exist or cannot be opened
+    * @throws IOException if the file cannot be read
+    */
+   ConfigScanner(File file) throws FileNotFoundException, IOException
+   {
+      fileName = file.getPath();
+
+      try (FileInputStream in = new FileInputStream(file))
+      {
+         bytes = in.readAllBytes();
+      }
+   }
+
+   /**
+    * Finds whether any token is left, without moving the position
+    *
+    * @return true if anything but whitespace is left
+    */
+   boolean hasNext()
+   {
+      int next = position;
+
+      while (next < bytes.length && (bytes[next] & 0xFF) <= ' ') // unsigned, so the bytes of a UTF-8 character stay in their token
+      {
+         next++;
+      }
+
+      return next < bytes.length;
+   }
+
+   /**
+    * Reads the rest of the current line and moves to the start of the next one
+    *
+    * @return the rest of the line, without its line separator (\n, \r\n or \r)
+    * @throws RuntimeException if the end of the file has been reached
+    */
+   String nextLine()
+   {
+      if (position >= bytes.length)
+      {
+         throw new RuntimeException("Unexpected end of \"" + fileName + "\"");
+      }
+
+      int start = position;
+
+      while (position < bytes.length && bytes[position] != '\n' && bytes[position] != '\r')
+      {
+         position++;
+      }
+
+      String line = new String(bytes, start, position - start, StandardCharsets.UTF_8);
+
+      if (position < bytes.length && bytes[position] == '\r')
+      {
+         position++;
+      }
+
+      if (position < bytes.length && bytes[position] == '\n')
+      {
+         position++;
+      }
+
+      return line;
+   } // String nextLine()
+
+   /**
+    * Reads the next whitespace separated token
+    *
+    * @return the token
+    * @throws RuntimeException if no token is left
+    */
+   String next()
+   {
+      int start = startToken();
+      position = tokenEnd(start);
+
+      return new String(bytes, start, position - start, StandardCharsets.UTF_8);
+   }
+
+   /**
+    * Reads the next token as an int
+    *
+    * @return the int
+    * @throws RuntimeException if no token is left or it is not an int
+    */
+   int nextInt()
+   {
+      int start = startToken();
+      int end = tokenEnd(start);
+      int i = start;
+      boolean negative = bytes[i] == '-';
+
+      if (bytes[i] == '-' || bytes[i] == '+')
+      {
+         i++;
+      }
+
+      int digits = i;
+
+      while (digits < end - 1 && bytes[digits] == '0') // leading zeros do not count toward the length
+      {
+         digits++;
+      }
+
+      if (i == end || end - digits > 10)
+      {
+         throw mismatch("an integer", start, end);
+      }
+
+      long value = 0;
+
+      for (; i < end; i++)
+      {
+         int digit = bytes[i] - '0';
+
+         if (digit < 0 || digit > 9)
+         {
+            throw mismatch("an integer", start, end);
+         }
+
+         value = value * 10 + digit;
+      }
+
+      value = negative ? -value : value;
+
+      if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+      {
+         throw mismatch("an integer", start, end);
+      }
+
+      position = end;
+
+      return (int)value;
+   } // int nextInt()
+
+   /**
+    * Reads the next token as a double; integers and real numbers are both accepted
+    *
+    * @return the double, exactly as Double.parseDouble would read the token
+    * @throws RuntimeException if no token is left or it is not a number
+    */
+   double nextDouble()
+   {
+      int start = startToken();
+      int end = tokenEnd(start);
+      double value = parseDouble(start, end);
+
+      position = end;
+
+      return value;
+   }
+
+   /**
+    * Reads the next count tokens as doubles into a block of an array
+    *
+    * @param values the array to fill
+    * @param offset where in values the first double goes
+    * @param count the number of doubles to read
+    * @throws RuntimeException if fewer than count tokens are left or one is not a number
+    */
+   void nextDoubles(double[] values, int offset, int count)
+   {
+      for (int n = offset; n < offset + count; n++)
+      {
+         values[n] = nextDouble();
+      }
+   }
+
+   /**
+    * Moves past whitespace to the start of the next token
+    *
+    * @return the index of the token's first byte
+    * @throws RuntimeException if no token is left
+    */
+   private int startToken()
+   {
+      while (position < bytes.length && (bytes[position] & 0xFF) <= ' ')
+      {
+         position++;
+      }
+
+      if (position >= bytes.length)
+      {
+         throw new RuntimeException("Unexpected end of \"" + fileName + "\"");
+      }
+
+      return position;
+   }
+
+   /**
+    * Finds where a token ends
+    *
+    * @param start the index of the token's first byte
+    * @return the index just after the token's last byte
+    */
+   private int tokenEnd(int start)
+   {
+      int end = start;
+
+      while (end < bytes.length && (bytes[end] & 0xFF) > ' ')
+      {
+         end++;
+      }
+
+      return end;
+   }
+
+   /**
+    * Parses a number. Plain decimals short enough to be exact are parsed here (Clinger's
+    * fast path: an exact integer divided by an exact power of ten is correctly rounded);
+    * the rest are parsed by Double.parseDouble.
+    *
+    * @param start the index of the number's first byte
+    * @param end the index just after the number's last byte
+    * @return the number
+    * @throws RuntimeException if the bytes are not a number
+    */
+   private double parseDouble(int start, int end)
+   {
+      int i = start;
+      boolean negative = bytes[i] == '-';
+
+      if (bytes[i] == '-' || bytes[i] == '+')
+      {
+         i++;
+      }
+
+      long mantissa = 0;
+      int significantDigits = 0;
+      int decimalPlaces = 0;
+      int digits = 0;
+      boolean point = false;
+
+      for (; i < end; i++)
+      {
+         int digit = bytes[i] - '0';
+
+         if (digit >= 0 && digit <= 9)
+         {
+            mantissa = mantissa * 10 + digit;
+            significantDigits += mantissa == 0 ? 0 : 1;
+            decimalPlaces += point ? 1 : 0;
+            digits++;
+
+            if (significantDigits > MAX_EXACT_DIGITS)
+            {
+               break;
+            }
+         }
+         else if (bytes[i] == '.' && !point)
+         {
+            point = true;
+         }
+         else
+         {
+            break;
+         }
+      } // for (; i < end; i++)
+
+      if (i < end || digits == 0 || decimalPlaces >= POWERS_OF_TEN.length)
+      {
+         // only digits, points, signs and exponents, as Scanner.nextDouble; Double.parseDouble would
+         // also take NaN, Infinity and a trailing d or f
+         for (int n = start; n < end; n++)
+         {
+            if ((bytes[n] < '0' || bytes[n] > '9') && bytes[n] != '.' && bytes[n] != '-' && bytes[n] != '+'
+                  && bytes[n] != 'e' && bytes[n] != 'E')
+            {
+               throw mismatch("a number", start, end);
+            }
+         }
+
+         String token = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+
+         try
+         {
+            return Double.parseDouble(token);
+         }
+         catch (NumberFormatException e)
+         {
+            throw mismatch("a number", start, end);
+         }
+      } // if (i < end || digits == 0 || decimalPlaces >= POWERS_OF_TEN.length)
+
+      double value = mantissa / POWERS_OF_TEN[decimalPlaces];
+
+      return negative ? -value : value;
+   } // private double parseDouble(int start, int end)
+
+   /**
+    * Describes a token that is not what the file should have at that point
+    *
+    * @param expected what the file should have, such as "an integer"
+    * @param start the index of the token's first byte
+    * @param end the index just after the token's last byte
+    * @return the exception to throw, naming the token and its line
+    */
+   private RuntimeException mismatch(String expected, int start, int end)
+   {
+      int line = 1;
+
+      for (int i = 0; i < start; i++)
+      {
+         line += bytes[i] == '\n' ? 1 : 0;
+      }
+
+      return new RuntimeException("Expected " + expected + " but found \""
+            + new String(bytes, start, end - start, StandardCharsets.UTF_8) + "\" on line " + line + " of \"" + fileName + "\"");
+   }
+
+} // final class ConfigScanner
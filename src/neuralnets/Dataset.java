@@ -0,0 +1,212 @@
+package neuralnets;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The training cases of a network: the inputs and targets of each case, which Perceptron11
+ * copies into its own arrays one case (or one mini-batch) at a time instead of holding every
+ * case itself. A Dataset is either held in memory (of, for the cases a configuration file
+ * lists or a set of bitmaps) or read from a binary file as the cases are needed (see
+ * MappedDataset), so a training set does not have to fit in the heap.
+ *
+ * Every read method can be called from many threads at once.
+ *
+ * Methods included:
+ * Dataset of(double[][] inputs, double[][] targets)
+ * int     size()
+ * int     numInputs()
+ * int     numOutputs()
+ * boolean inMemory()
+ * void    readInputs(int testCase, double[] into, int offset)
+ * void    readInputs(int testCase, float[] into, int offset)
+ * void    readTargets(int testCase, double[] into, int offset)
+ * void    readTargets(int testCase, float[] into, int offset)
+ * void    save(File file) throws IOException
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+public abstract class Dataset
+{
+   /**
+    * Creates a Dataset of cases held in memory (without copying them)
+    *
+    * @param inputs indices: training case, i
+    * @param targets indices: training case, k
+    * @return the Dataset
+    * @throws RuntimeException if there are not as many targets as inputs
+    */
+   public static Dataset of(double[][] inputs, double[][] targets)
+   {
+      if (inputs.length != targets.length)
+      {
+         throw new RuntimeException(inputs.length + " cases of inputs but " + targets.length + " of targets");
+      }
+
+      return new InMemory(inputs, targets);
+   }
+
+   /**
+    * Finds the number of cases
+    *
+    * @return the number of training cases
+    */
+   public abstract int size();
+
+   /**
+    * Finds the number of inputs of each case
+    *
+    * @return the number of inputs per case
+    */
+   public abstract int numInputs();
+
+   /**
+    * Finds the number of targets of each case
+    *
+    * @return the number of outputs per case
+    */
+   public abstract int numOutputs();
+
+   /**
+    * Finds whether every case is already held in memory, so that reading one is only a copy
+    *
+    * @return true if the cases are in memory, false if they are read from a file
+    */
+   public boolean inMemory()
+   {
+      return false;
+   }
+
+   /**
+    * Copies the inputs of a case into an array
+    *
+    * @param testCase the index of the case
+    * @param into the array the numInputs() inputs are copied into
+    * @param offset where in into the first input goes
+    */
+   public abstract void readInputs(int testCase, double[] into, int offset);
+
+   /**
+    * Copies the inputs of a case into an array, each rounded to float
+    *
+    * @param testCase the index of the case
+    * @param into the array the numInputs() inputs are copied into
+    * @param offset where in into the first input goes
+    */
+   public abstract void readInputs(int testCase, float[] into, int offset);
+
+   /**
+    * Copies the targets of a case into an array
+    *
+    * @param testCase the index of the case
+    * @param into the array the numOutputs() targets are copied into
+    * @param offset where in into the first target goes
+    */
+   public abstract void readTargets(int testCase, double[] into, int offset);
+
+   /**
+    * Copies the targets of a case into an array, each rounded to float
+    *
+    * @param testCase the index of the case
+    * @param into the array the numOutputs() targets are copied into
+    * @param offset where in into the first target goes
+    */
+   public abstract void readTargets(int testCase, float[] into, int offset);
+
+   /**
+    * Writes every case, in order, to a binary dataset file that MappedDataset can read
+    *
+    * @param file the file to write
+    * @throws IOException if the file cannot be written
+    */
+   public void save(File file) throws IOException
+   {
+      double[] caseInputs = new double[numInputs()];
+      double[] caseTargets = new double[numOutputs()];
+
+      try (MappedDataset.Writer writer = new MappedDataset.Writer(file, numInputs(), numOutputs()))
+      {
+         for (int testCase = 0; testCase < size(); testCase++)
+         {
+            readInputs(testCase, caseInputs, 0);
+            readTargets(testCase, caseTargets, 0);
+            writer.add(caseInputs, caseTargets);
+         }
+      }
+   } // public void save(File file) throws IOException
+
+   /**
+    * Cases held in memory as one array of inputs and one of targets per case
+    */
+   private static final class InMemory extends Dataset
+   {
+      private final double[][] inputs; // indices: training case, i
+      private final double[][] targets; // indices: training case, k
+
+      InMemory(double[][] inputs, double[][] targets)
+      {
+         this.inputs = inputs;
+         this.targets = targets;
+      }
+
+      @Override
+      public int size()
+      {
+         return inputs.length;
+      }
+
+      @Override
+      public int numInputs()
+      {
+         return inputs.length == 0 ? 0 : inputs[0].length;
+      }
+
+      @Override
+      public int numOutputs()
+      {
+         return targets.length == 0 ? 0 : targets[0].length;
+      }
+
+      @Override
+      public boolean inMemory()
+      {
+         return true;
+      }
+
+      @Override
+      public void readInputs(int testCase, double[] into, int offset)
+      {
+         System.arraycopy(inputs[testCase], 0, into, offset, inputs[testCase].length);
+      }
+
+      @Override
+      public void readInputs(int testCase, float[] into, int offset)
+      {
+         double[] caseInputs = inputs[testCase];
+
+         for (int i = 0; i < caseInputs.length; i++)
+         {
+            into[offset + i] = (float)caseInputs[i];
+         }
+      }
+
+      @Override
+      public void readTargets(int testCase, double[] into, int offset)
+      {
+         System.arraycopy(targets[testCase], 0, into, offset, targets[testCase].length);
+      }
+
+      @Override
+      public void readTargets(int testCase, float[] into, int offset)
+      {
+         double[] caseTargets = targets[testCase];
+
+         for (int k = 0; k < caseTargets.length; k++)
+         {
+            into[offset + k] = (float)caseTargets[k];
+         }
+      }
+   } // private static final class InMemory extends Dataset
+
+} // public abstract class Dataset
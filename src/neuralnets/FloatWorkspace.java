@@ -0,0 +1,48 @@
+package neuralnets;
+
+/**
+ * Scratch arrays for propagating and back propagating one test case in single
+ * precision (see Perceptron11's float mode). The float counterpart of a one-case
+ * Workspace: half the bytes per value, so twice as many values fit in each cache
+ * line and each SIMD register.
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+final class FloatWorkspace
+{
+   final float[][] activs; // indices: layer, row
+   final float[][] thetas; // indices: same as activs
+   final float[][] psis; // indices: same as activs
+   final float[] scratch; // one layer's worth of temporary values
+   final float[] targets; // the targets of the case in activs[0]
+
+   /**
+    * Creates a FloatWorkspace for one case
+    *
+    * @param numActivs numActivs[n] = number of activations in layer n (layer 0 = inputs)
+    */
+   FloatWorkspace(int[] numActivs)
+   {
+      int layers = numActivs.length;
+      int maxActivs = 0;
+
+      activs = new float[layers][];
+      thetas = new float[layers][];
+      psis = new float[layers][];
+
+      for (int layer = 0; layer < layers; layer++)
+      {
+         activs[layer] = new float[numActivs[layer]];
+         thetas[layer] = new float[numActivs[layer]];
+         psis[layer] = new float[numActivs[layer]];
+
+         maxActivs = Math.max(maxActivs, numActivs[layer]);
+      }
+
+      scratch = new float[maxActivs];
+      targets = new float[numActivs[layers - 1]];
+   } // FloatWorkspace(int[] numActivs)
+
+} // final class FloatWorkspace
@@ -0,0 +1,381 @@
+package neuralnets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The vector kernels that the inner loops of propagation and back propagation are
+ * built from. This class is the plain scalar implementation; SimdKernels overrides
+ * it with versions built on the incubating Java Vector API (jdk.incubator.vector).
+ *
+ * Which implementation is used is decided once, when the class is loaded (see select()):
+ * SimdKernels is only chosen if the jdk.incubator.vector module was resolved at startup
+ * (run with --add-modules jdk.incubator.vector), the CPU's preferred species holds more
+ * than one double, and its results agree with the scalar kernels on a sample problem.
+ * Otherwise the scalar kernels are used.
+ *
+ * Every kernel also comes in a float version for the single precision mode.
+ *
+ * The sparse kernels only visit the runs of consecutive elements of x (or a) that are listed,
+ * for inputs that are mostly zeros. Thresholded bitmaps are zero outside a few dozen short
+ * runs per case, so listing runs rather than single indices lets each run use the vector
+ * kernels instead of one scalar gather per element.
+ *
+ * Methods included:
+ * Kernels  select()
+ * double   dot(double[] a, int aOffset, double[] b, int bOffset, int n)
+ * void     axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int n)
+ * void     dot4(double[] a, int aOffset, int aStride, double[] b, int bOffset, int n, double[] c, int cOffset, int cStride)
+ * float    dot(float[] a, int aOffset, float[] b, int bOffset, int n)
+ * void     axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int n)
+ * double   sparseDot(double[] a, int[] runs, double[] b, int bOffset)
+ * void     sparseAxpy(double alpha, double[] x, int[] runs, double[] y, int yOffset)
+ * float    sparseDot(float[] a, int[] runs, float[] b, int bOffset)
+ * void     sparseAxpy(float alpha, float[] x, int[] runs, float[] y, int yOffset)
+ * String   name()
+ * boolean  agrees(Kernels reference)
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+public class Kernels
+{
+   public static final Kernels KERNELS = select(); // the kernels every caller should use
+
+   private static final double TOLERANCE = 1e-12; // maximum relative difference allowed from the scalar dot product
+   private static final float FLOAT_TOLERANCE = 1e-5f; // the same, for the float dot product
+
+   /**
+    * Chooses the fastest kernels that are available and correct on this machine
+    *
+    * @return SimdKernels if the Vector API is usable, otherwise the scalar Kernels
+    */
+   private static Kernels select()
+   {
+      Kernels scalar = new Kernels();
+      Kernels chosen = scalar;
+
+      if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+      {
+         try
+         {
+            // loaded by name so that this class never links against the incubator module itself
+            Kernels simd = (Kernels)Class.forName("neuralnets.SimdKernels").getDeclaredConstructor().newInstance();
+
+            if (simd.agrees(scalar))
+            {
+               chosen = simd;
+            }
+         }
+         catch (ReflectiveOperationException | LinkageError | UnsupportedOperationException e)
+         {
+            System.out.println("DEBUG Vector API unavailable: " + e);
+         }
+      }
+
+      System.out.println("DEBUG kernels: " + chosen.name());
+
+      return chosen;
+   } // private static Kernels select()
+
+   /**
+    * Computes the dot product of two contiguous runs of doubles
+    *
+    * @param a the first array
+    * @param aOffset the index of the first element of a to use
+    * @param b the second array
+    * @param bOffset the index of the first element of b to use
+    * @param n the number of elements to multiply
+    * @return the sum of a[aOffset + i] * b[bOffset + i] for i from 0 to n - 1
+    */
+   public double dot(double[] a, int aOffset, double[] b, int bOffset, int n)
+   {
+      double dot = 0.0;
+
+      for (int i = 0; i < n; i++)
+      {
+         dot += a[aOffset + i] * b[bOffset + i];
+      }
+
+      return dot;
+   }
+
+   /**
+    * Computes the dot products of four runs of doubles, spaced aStride apart in a, with one
+    * run of b, reading b only once. Each of the four is summed in exactly the same order
+    * as dot, so the results are identical to four calls to dot.
+    *
+    * @param a the array that holds the four runs
+    * @param aOffset the index of the first element of the first run
+    * @param aStride the distance from the start of one run to the start of the next
+    * @param b the array that is shared by all four dot products
+    * @param bOffset the index of the first element of b to use
+    * @param n the number of elements to multiply
+    * @param c where the four dot products are stored
+    * @param cOffset the index of the first dot product in c
+    * @param cStride the distance between the dot products in c
+    */
+   public void dot4(double[] a, int aOffset, int aStride, double[] b, int bOffset, int n, double[] c, int cOffset, int cStride)
+   {
+      int a1 = aOffset + aStride;
+      int a2 = a1 + aStride;
+      int a3 = a2 + aStride;
+      double dot0 = 0.0;
+      double dot1 = 0.0;
+      double dot2 = 0.0;
+      double dot3 = 0.0;
+
+      for (int i = 0; i < n; i++)
+      {
+         double bi = b[bOffset + i];
+
+         dot0 += a[aOffset + i] * bi;
+         dot1 += a[a1 + i] * bi;
+         dot2 += a[a2 + i] * bi;
+         dot3 += a[a3 + i] * bi;
+      }
+
+      c[cOffset] = dot0;
+      c[cOffset + cStride] = dot1;
+      c[cOffset + 2 * cStride] = dot2;
+      c[cOffset + 3 * cStride] = dot3;
+   } // public void dot4(double[] a, int aOffset, int aStride, double[] b, int bOffset, int n, double[] c, int cOffset, int cStride)
+
+   /**
+    * Adds a multiple of one contiguous run of doubles to another (y += alpha * x)
+    *
+    * @param alpha the multiple of x to add
+    * @param x the array that is added
+    * @param xOffset the index of the first element of x to use
+    * @param y the array that is added to
+    * @param yOffset the index of the first element of y to change
+    * @param n the number of elements to change
+    */
+   public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int n)
+   {
+      for (int i = 0; i < n; i++)
+      {
+         y[yOffset + i] += alpha * x[xOffset + i];
+      }
+   }
+
+   /**
+    * Computes the dot product of two contiguous runs of floats, summing in float
+    *
+    * @param a the first array
+    * @param aOffset the index of the first element of a to use
+    * @param b the second array
+    * @param bOffset the index of the first element of b to use
+    * @param n the number of elements to multiply
+    * @return the sum of a[aOffset + i] * b[bOffset + i] for i from 0 to n - 1
+    */
+   public float dot(float[] a, int aOffset, float[] b, int bOffset, int n)
+   {
+      float dot = 0.0f;
+
+      for (int i = 0; i < n; i++)
+      {
+         dot += a[aOffset + i] * b[bOffset + i];
+      }
+
+      return dot;
+   }
+
+   /**
+    * Adds a multiple of one contiguous run of floats to another (y += alpha * x)
+    *
+    * @param alpha the multiple of x to add
+    * @param x the array that is added
+    * @param xOffset the index of the first element of x to use
+    * @param y the array that is added to
+    * @param yOffset the index of the first element of y to change
+    * @param n the number of elements to change
+    */
+   public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int n)
+   {
+      for (int i = 0; i < n; i++)
+      {
+         y[yOffset + i] += alpha * x[xOffset + i];
+      }
+   }
+
+   /**
+    * Computes the dot product of a with a run of b, using only the elements of a inside
+    * the given runs, for an a that is zero everywhere else. The runs are listed as pairs
+    * of indices, runs[2r] (the first element of run r) and runs[2r + 1] (one past its last),
+    * in increasing order, so with every nonzero element of a inside a run the scalar result
+    * is exactly that of the scalar dot.
+    *
+    * @param a the sparse array
+    * @param runs the start and end of every run of a to use, in increasing order
+    * @param b the dense array
+    * @param bOffset the index in b that matches index 0 of a
+    * @return the sum of a[n] * b[bOffset + n] for every n inside a run
+    */
+   public double sparseDot(double[] a, int[] runs, double[] b, int bOffset)
+   {
+      double dot = 0.0;
+
+      for (int r = 0; r < runs.length; r += 2)
+      {
+         for (int n = runs[r]; n < runs[r + 1]; n++)
+         {
+            dot += a[n] * b[bOffset + n];
+         }
+      }
+
+      return dot;
+   }
+
+   /**
+    * Adds a multiple of the elements of x inside the given runs to the matching elements
+    * of y (y += alpha * x, skipping everything outside the runs). Each run is one axpy.
+    *
+    * @param alpha the multiple of x to add
+    * @param x the sparse array that is added
+    * @param runs the start and end of every run of x to use (see sparseDot)
+    * @param y the array that is added to
+    * @param yOffset the index in y that matches index 0 of x
+    */
+   public void sparseAxpy(double alpha, double[] x, int[] runs, double[] y, int yOffset)
+   {
+      for (int r = 0; r < runs.length; r += 2)
+      {
+         axpy(alpha, x, runs[r], y, yOffset + runs[r], runs[r + 1] - runs[r]);
+      }
+   }
+
+   /**
+    * Computes the dot product of a with a run of b in float, using only the elements of a
+    * inside the given runs (see sparseDot for doubles)
+    *
+    * @param a the sparse array
+    * @param runs the start and end of every run of a to use, in increasing order
+    * @param b the dense array
+    * @param bOffset the index in b that matches index 0 of a
+    * @return the sum of a[n] * b[bOffset + n] for every n inside a run
+    */
+   public float sparseDot(float[] a, int[] runs, float[] b, int bOffset)
+   {
+      float dot = 0.0f;
+
+      for (int r = 0; r < runs.length; r += 2)
+      {
+         for (int n = runs[r]; n < runs[r + 1]; n++)
+         {
+            dot += a[n] * b[bOffset + n];
+         }
+      }
+
+      return dot;
+   }
+
+   /**
+    * Adds a multiple of the elements of x inside the given runs to the matching elements
+    * of y, in float. Each run is one axpy.
+    *
+    * @param alpha the multiple of x to add
+    * @param x the sparse array that is added
+    * @param runs the start and end of every run of x to use (see sparseDot)
+    * @param y the array that is added to
+    * @param yOffset the index in y that matches index 0 of x
+    */
+   public void sparseAxpy(float alpha, float[] x, int[] runs, float[] y, int yOffset)
+   {
+      for (int r = 0; r < runs.length; r += 2)
+      {
+         axpy(alpha, x, runs[r], y, yOffset + runs[r], runs[r + 1] - runs[r]);
+      }
+   }
+
+   /**
+    * Describes these kernels for the diagnostic output
+    *
+    * @return the name of the implementation
+    */
+   public String name()
+   {
+      return "scalar";
+   }
+
+   /**
+    * Checks these kernels against another implementation on a fixed random problem.
+    * The axpy results must be identical (each element is one multiply and one add either
+    * way); the dot products may differ only by rounding, since a vector implementation
+    * adds the products in a different order. Both the double and float kernels are checked,
+    * and dot4 must match this implementation's own dot exactly.
+    *
+    * @param reference the kernels to compare against
+    * @return true if the results agree
+    */
+   public boolean agrees(Kernels reference)
+   {
+      Random random = new Random(1);
+      int n = 1003; // deliberately not a multiple of any vector length, so the tails are checked too
+
+      double[] a = new double[n];
+      double[] b = new double[n];
+
+      for (int i = 0; i < n; i++)
+      {
+         a[i] = random.nextDouble() - 0.5;
+         b[i] = random.nextDouble() - 0.5;
+      }
+
+      float[] aFloat = new float[n];
+      float[] bFloat = new float[n];
+
+      for (int i = 0; i < n; i++)
+      {
+         aFloat[i] = (float)a[i];
+         bFloat[i] = (float)b[i];
+      }
+
+      boolean agrees = true;
+
+      for (int offset = 0; offset < 3 && agrees; offset++)
+      {
+         double expected = reference.dot(a, offset, b, offset, n - offset);
+         double actual = dot(a, offset, b, offset, n - offset);
+
+         agrees = Math.abs(actual - expected) <= TOLERANCE * n * Math.max(1.0, Math.abs(expected));
+
+         double[] expectedY = b.clone();
+         double[] actualY = b.clone();
+
+         reference.axpy(0.37, a, offset, expectedY, 0, n - offset);
+         axpy(0.37, a, offset, actualY, 0, n - offset);
+
+         agrees = agrees && Arrays.equals(expectedY, actualY);
+
+         // the four runs of dot4 overlap, which is allowed since a is only read
+         double[] expectedDots = new double[4];
+         double[] actualDots = new double[4];
+
+         for (int r = 0; r < 4; r++)
+         {
+            expectedDots[r] = dot(a, offset + r, b, offset, n - offset - 3);
+         }
+
+         dot4(a, offset, 1, b, offset, n - offset - 3, actualDots, 0, 1);
+
+         agrees = agrees && Arrays.equals(expectedDots, actualDots);
+
+         float expectedFloat = reference.dot(aFloat, offset, bFloat, offset, n - offset);
+         float actualFloat = dot(aFloat, offset, bFloat, offset, n - offset);
+
+         agrees = agrees && Math.abs(actualFloat - expectedFloat) <= FLOAT_TOLERANCE * n * Math.max(1.0f, Math.abs(expectedFloat));
+
+         float[] expectedYFloat = bFloat.clone();
+         float[] actualYFloat = bFloat.clone();
+
+         reference.axpy(0.37f, aFloat, offset, expectedYFloat, 0, n - offset);
+         axpy(0.37f, aFloat, offset, actualYFloat, 0, n - offset);
+
+         agrees = agrees && Arrays.equals(expectedYFloat, actualYFloat);
+      } // for (int offset = 0; offset < 3 && agrees; offset++)
+
+      return agrees;
+   } // public boolean agrees(Kernels reference)
+
+} // public class Kernels
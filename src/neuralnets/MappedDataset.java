@@ -0,0 +1,300 @@
+package neuralnets;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Training cases read from a binary dataset file as they are needed, so the training set
+ * can be far larger than the heap. The file is little-endian, like ModelFile:
+ *
+ *    int      MAGIC ("NNds")
+ *    int      VERSION
+ *    int      numInputs
+ *    int      numOutputs
+ *    long     number of cases
+ *    then one fixed-width record per case: its numInputs inputs then its numOutputs targets, as doubles
+ *
+ * The records are mapped with FileChannel.map in windows of whole records, each at most
+ * WINDOW_BYTES long (one mapping cannot pass 2 GB). Nothing is read until a case is: the
+ * operating system pages each part of the file in when it is first touched, and can drop
+ * it again under memory pressure, so the heap only ever holds the case being trained.
+ * A read is one bulk copy out of the mapped window.
+ *
+ * Files are written a case at a time by a Writer (or Dataset.save), so they can also be
+ * larger than the heap.
+ *
+ * Methods included:
+ * MappedDataset open(File file) throws IOException
+ * int     size()
+ * int     numInputs()
+ * int     numOutputs()
+ * void    readInputs(int testCase, double[] into, int offset)
+ * void    readInputs(int testCase, float[] into, int offset)
+ * void    readTargets(int testCase, double[] into, int offset)
+ * void    readTargets(int testCase, float[] into, int offset)
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+public final class MappedDataset extends Dataset
+{
+   public static final int MAGIC = 0x73644E4E; // "NNds" when read as little-endian bytes
+   public static final int VERSION = 1;
+
+   private static final int HEADER_BYTES = 4 * Integer.BYTES + Long.BYTES;
+   private static final long WINDOW_BYTES = 1L << 30; // the most of the file mapped by one window
+
+   private final int numCases;
+   private final int numInputs;
+   private final int numOutputs;
+   private final int recordDoubles; // numInputs + numOutputs
+   private final int casesPerWindow;
+   private final DoubleBuffer[] windows; // indices: window; each holds casesPerWindow records (the last may hold fewer)
+
+   /**
+    * Creates a MappedDataset over windows that are already mapped
+    */
+   private MappedDataset(int numCases, int numInputs, int numOutputs, int casesPerWindow, DoubleBuffer[] windows)
+   {
+      this.numCases = numCases;
+      this.numInputs = numInputs;
+      this.numOutputs = numOutputs;
+      this.recordDoubles = numInputs + numOutputs;
+      this.casesPerWindow = casesPerWindow;
+      this.windows = windows;
+   }
+
+   /**
+    * Maps a binary dataset file, without reading any case yet
+    *
+    * @param file the file to read
+    * @return the cases in the file
+    * @throws IOException if the file cannot be opened or mapped
+    * @throws RuntimeException if the file is not a dataset file, has an unknown version or is incomplete
+    */
+   public static MappedDataset open(File file) throws IOException
+   {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+      {
+         if (channel.size() < HEADER_BYTES)
+         {
+            throw new RuntimeException("Not a dataset file: \"" + file + "\"");
+         }
+
+         ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+         if (header.getInt() != MAGIC)
+         {
+            throw new RuntimeException("Not a dataset file: \"" + file + "\"");
+         }
+
+         int version = header.getInt();
+
+         if (version != VERSION)
+         {
+            throw new RuntimeException("Unsupported dataset file version " + version + " in \"" + file + "\"");
+         }
+
+         int numInputs = header.getInt();
+         int numOutputs = header.getInt();
+         long numCases = header.getLong();
+         long recordBytes = (long)(numInputs + numOutputs) * Double.BYTES;
+
+         if (numInputs < 1 || numOutputs < 1 || numCases < 0 || numCases > Integer.MAX_VALUE
+               || channel.size() != HEADER_BYTES + numCases * recordBytes)
+         {
+            throw new RuntimeException("Incomplete or damaged dataset file: \"" + file + "\"");
+         }
+
+         int casesPerWindow = (int)Math.max(1, Math.min(numCases, WINDOW_BYTES / recordBytes));
+         DoubleBuffer[] windows = new DoubleBuffer[(int)((numCases + casesPerWindow - 1) / casesPerWindow)];
+
+         for (int w = 0; w < windows.length; w++)
+         {
+            long first = (long)w * casesPerWindow;
+            long cases = Math.min(casesPerWindow, numCases - first);
+
+            windows[w] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first * recordBytes, cases * recordBytes)
+                  .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+         }
+
+         return new MappedDataset((int)numCases, numInputs, numOutputs, casesPerWindow, windows);
+      } // try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+   } // public static MappedDataset open(File file) throws IOException
+
+   @Override
+   public int size()
+   {
+      return numCases;
+   }
+
+   @Override
+   public int numInputs()
+   {
+      return numInputs;
+   }
+
+   @Override
+   public int numOutputs()
+   {
+      return numOutputs;
+   }
+
+   @Override
+   public void readInputs(int testCase, double[] into, int offset)
+   {
+      windows[testCase / casesPerWindow].get((testCase % casesPerWindow) * recordDoubles, into, offset, numInputs);
+   }
+
+   @Override
+   public void readInputs(int testCase, float[] into, int offset)
+   {
+      DoubleBuffer window = windows[testCase / casesPerWindow];
+      int start = (testCase % casesPerWindow) * recordDoubles;
+
+      for (int i = 0; i < numInputs; i++)
+      {
+         into[offset + i] = (float)window.get(start + i);
+      }
+   }
+
+   @Override
+   public void readTargets(int testCase, double[] into, int offset)
+   {
+      windows[testCase / casesPerWindow].get((testCase % casesPerWindow) * recordDoubles + numInputs, into, offset, numOutputs);
+   }
+
+   @Override
+   public void readTargets(int testCase, float[] into, int offset)
+   {
+      DoubleBuffer window = windows[testCase / casesPerWindow];
+      int start = (testCase % casesPerWindow) * recordDoubles + numInputs;
+
+      for (int k = 0; k < numOutputs; k++)
+      {
+         into[offset + k] = (float)window.get(start + k);
+      }
+   }
+
+   /**
+    * Writes a binary dataset file one case at a time, replacing the file if it exists.
+    * The number of cases is filled in by close(), so a file that was never closed cannot be opened.
+    *
+    * Methods included:
+    * Writer(File file, int numInputs, int numOutputs) throws IOException
+    * void add(double[] inputs, double[] targets) throws IOException
+    * void close() throws IOException
+    *
+    * Private helpers:
+    * void flush() throws IOException
+    */
+   public static final class Writer implements AutoCloseable
+   {
+      private static final int BUFFER_BYTES = 1 << 20; // cases are written in blocks of about this size
+
+      private final FileChannel channel;
+      private final int numInputs;
+      private final int numOutputs;
+      private final ByteBuffer buffer; // the cases not written yet
+      private long numCases;
+
+      /**
+       * Creates the file and writes its header
+       *
+       * @param file the file to write
+       * @param numInputs the number of inputs of each case
+       * @param numOutputs the number of targets of each case
+       * @throws IOException if the file cannot be created
+       */
+      public Writer(File file, int numInputs, int numOutputs) throws IOException
+      {
+         this.numInputs = numInputs;
+         this.numOutputs = numOutputs;
+
+         channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+               StandardOpenOption.TRUNCATE_EXISTING);
+         buffer = ByteBuffer.allocate(Math.max(BUFFER_BYTES, (numInputs + numOutputs) * Double.BYTES))
+               .order(ByteOrder.LITTLE_ENDIAN);
+
+         buffer.putInt(MAGIC).putInt(VERSION).putInt(numInputs).putInt(numOutputs).putLong(0L);
+      }
+
+      /**
+       * Appends one case
+       *
+       * @param inputs the inputs of the case; the first numInputs are written
+       * @param targets the targets of the case; the first numOutputs are written
+       * @throws IOException if the file cannot be written
+       */
+      public void add(double[] inputs, double[] targets) throws IOException
+      {
+         if (buffer.remaining() < (numInputs + numOutputs) * Double.BYTES)
+         {
+            flush();
+         }
+
+         for (int i = 0; i < numInputs; i++)
+         {
+            buffer.putDouble(inputs[i]);
+         }
+
+         for (int k = 0; k < numOutputs; k++)
+         {
+            buffer.putDouble(targets[k]);
+         }
+
+         numCases++;
+      } // public void add(double[] inputs, double[] targets) throws IOException
+
+      /**
+       * Writes the remaining cases and the number of cases, and closes the file
+       *
+       * @throws IOException if the file cannot be written
+       */
+      @Override
+      public void close() throws IOException
+      {
+         try
+         {
+            flush();
+
+            ByteBuffer count = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            long position = HEADER_BYTES - Long.BYTES; // where the number of cases goes
+
+            count.putLong(numCases).flip();
+
+            while (count.hasRemaining())
+            {
+               position += channel.write(count, position);
+            }
+         }
+         finally
+         {
+            channel.close();
+         }
+      } // public void close() throws IOException
+
+      /**
+       * Writes the buffered cases to the file
+       *
+       * @throws IOException if the file cannot be written
+       */
+      private void flush() throws IOException
+      {
+         buffer.flip();
+
+         while (buffer.hasRemaining())
+         {
+            channel.write(buffer);
+         }
+
+         buffer.clear();
+      }
+   } // public static final class Writer implements AutoCloseable
+
+} // public final class MappedDataset extends Dataset
@@ -0,0 +1,164 @@
+package neuralnets;
+import java.util.Arrays;
+
+/**
+ * Blocked matrix-matrix kernels used by the mini-batch training mode.
+ * All matrices are stored row-major in flat double arrays, so the element at
+ * (row, col) of an r by c matrix lives at [row * c + col].
+ *
+ * The loops are tiled so that a BLOCK by BLOCK tile of the right hand matrix
+ * stays in cache while every row of the left hand matrix streams past it. This
+ * is what makes a batch of cases cheaper than the same number of single-case
+ * matrix-vector passes: each weight is loaded once per tile instead of once per case.
+ *
+ * Methods included:
+ * void multiply(double[] a, double[] b, double[] c, int m, int k, int n)
+ * void multiplyTransposeA(double[] a, double[] b, double[] c, int m, int k, int n)
+ * void multiplyTransposeB(double[] a, double[] b, double[] c, int m, int k, int n)
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+public final class MatrixMath
+{
+   private static final int BLOCK = 64; // 64 x 64 doubles = 32 KB, about an L1 cache
+
+   /**
+    * Not meant to be instantiated; all kernels are static
+    */
+   private MatrixMath()
+   {
+   }
+
+   /**
+    * Computes C = A * B
+    *
+    * @param a the m by k left hand matrix
+    * @param b the k by n right hand matrix
+    * @param c the m by n destination matrix (overwritten)
+    * @param m the number of rows in A and C
+    * @param k the number of columns in A and rows in B
+    * @param n the number of columns in B and C
+    */
+   public static void multiply(double[] a, double[] b, double[] c, int m, int k, int n)
+   {
+      Arrays.fill(c, 0, m * n, 0.0);
+
+      for (int pBlock = 0; pBlock < k; pBlock += BLOCK)
+      {
+         int pEnd = Math.min(pBlock + BLOCK, k);
+
+         for (int jBlock = 0; jBlock < n; jBlock += BLOCK)
+         {
+            int jEnd = Math.min(jBlock + BLOCK, n);
+
+            for (int i = 0; i < m; i++)
+            {
+               int aRow = i * k;
+               int cRow = i * n;
+
+               for (int p = pBlock; p < pEnd; p++)
+               {
+                  double aip = a[aRow + p];
+                  int bRow = p * n;
+
+                  for (int j = jBlock; j < jEnd; j++)
+                  {
+                     c[cRow + j] += aip * b[bRow + j];
+                  }
+               }
+            } // for (int i = 0; i < m; i++)
+         } // for (int jBlock = 0; jBlock < n; jBlock += BLOCK)
+      } // for (int pBlock = 0; pBlock < k; pBlock += BLOCK)
+   } // public static void multiply(double[] a, double[] b, double[] c, int m, int k, int n)
+
+   /**
+    * Computes C = transpose(A) * B
+    * Used for weight gradients, where A holds the psis of every case
+    * and B holds the left activations of every case
+    *
+    * @param a the m by k matrix whose transpose is the left hand side
+    * @param b the m by n right hand matrix
+    * @param c the k by n destination matrix (overwritten)
+    * @param m the number of rows in A and B (ie. the number of cases)
+    * @param k the number of columns in A and rows in C
+    * @param n the number of columns in B and C
+    */
+   public static void multiplyTransposeA(double[] a, double[] b, double[] c, int m, int k, int n)
+   {
+      Arrays.fill(c, 0, k * n, 0.0);
+
+      for (int pBlock = 0; pBlock < k; pBlock += BLOCK)
+      {
+         int pEnd = Math.min(pBlock + BLOCK, k);
+
+         for (int jBlock = 0; jBlock < n; jBlock += BLOCK)
+         {
+            int jEnd = Math.min(jBlock + BLOCK, n);
+
+            for (int i = 0; i < m; i++)
+            {
+               int aRow = i * k;
+               int bRow = i * n;
+
+               for (int p = pBlock; p < pEnd; p++)
+               {
+                  double aip = a[aRow + p];
+                  int cRow = p * n;
+
+                  for (int j = jBlock; j < jEnd; j++)
+                  {
+                     c[cRow + j] += aip * b[bRow + j];
+                  }
+               }
+            } // for (int i = 0; i < m; i++)
+         } // for (int jBlock = 0; jBlock < n; jBlock += BLOCK)
+      } // for (int pBlock = 0; pBlock < k; pBlock += BLOCK)
+   } // public static void multiplyTransposeA(double[] a, double[] b, double[] c, int m, int k, int n)
+
+   /**
+    * Computes C = A * transpose(B)
+    * Every element of C is the dot product of a row of A with a row of B,
+    * so both operands are read contiguously. Four rows of A are multiplied with each
+    * row of B at once (Kernels.dot4), so each row of B is read a quarter as often, and
+    * every element still comes out exactly as Kernels.dot would compute it
+    *
+    * @param a the m by n left hand matrix
+    * @param b the k by n matrix whose transpose is the right hand side
+    * @param c the m by k destination matrix (overwritten)
+    * @param m the number of rows in A and C
+    * @param k the number of rows in B and columns in C
+    * @param n the number of columns in A and B
+    */
+   public static void multiplyTransposeB(double[] a, double[] b, double[] c, int m, int k, int n)
+   {
+      for (int pBlock = 0; pBlock < k; pBlock += BLOCK)
+      {
+         int pEnd = Math.min(pBlock + BLOCK, k);
+
+         int i = 0;
+
+         // four rows of A at a time share each pass over a row of B
+         for (; i + 4 <= m; i += 4)
+         {
+            for (int p = pBlock; p < pEnd; p++)
+            {
+               Kernels.KERNELS.dot4(a, i * n, n, b, p * n, n, c, i * k + p, k);
+            }
+         }
+
+         for (; i < m; i++)
+         {
+            int aRow = i * n;
+            int cRow = i * k;
+
+            for (int p = pBlock; p < pEnd; p++)
+            {
+               c[cRow + p] = Kernels.KERNELS.dot(a, aRow, b, p * n, n);
+            }
+         } // for (; i < m; i++)
+      } // for (int pBlock = 0; pBlock < k; pBlock += BLOCK)
+   } // public static void multiplyTransposeB(double[] a, double[] b, double[] c, int m, int k, int n)
+
+} // public final class MatrixMath
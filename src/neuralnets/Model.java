@@ -0,0 +1,222 @@
+package neuralnets;
+
+/**
+ * A trained network that can only be evaluated, for scoring cases once training is
+ * over. The topology, weights and wrapper functions are copied when the Model is
+ * created and never change, so any number of threads can call predict at the same time
+ * without locking. Each thread propagates through its own scratch arrays, created the
+ * first time that thread calls predict and reused afterwards, so predict allocates nothing.
+ *
+ * A Model can be created from a trained Perceptron11 (see model()) or from a saved
+ * model file (see ModelFile).
+ *
+ * The forward pass is the same as Perceptron11's dense propActivs (the same dot product
+ * kernel in the same order), so the outputs match the trained network's to within
+ * rounding. They are exact for cases the network propagates densely; a sparse case
+ * (see Perceptron11.sparseInputs) goes through Kernels.sparseDot there, which with the
+ * SIMD kernels adds its sums in a different order, so they can differ in the last bits.
+ *
+ * predictBatch scores many cases per call: BATCH_CASES cases at a time are stacked as
+ * the rows of one matrix and each layer becomes one matrix multiply (see MatrixMath),
+ * which loads each weight once per block of cases instead of once per case. Its
+ * outputs are the same as those of predict, since every theta is still one dot product.
+ *
+ * Methods included:
+ * Model(int[] numActivs, double[][] weights, Activation[] activations)
+ * double[] predict(double[] inputs, double[] outputs)
+ * double[][] predictBatch(double[][] inputs)
+ * void     predictBatch(double[] inputs, int cases, double[] outputs)
+ * int      numInputs()
+ * int      numOutputs()
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+public final class Model
+{
+   private final int[] numActivs; // numActivs[n] = number of activations in layer n (layer 0 = inputs)
+   private final double[][] weights; // indices: layer, right * numActivs[layer] + left
+   private final Activation[] activations; // indices: layer; the wrapper function of each layer (layer 0 has none)
+
+   private final ThreadLocal<double[][]> scratch; // per thread; indices: layer, row (the last array holds thetas)
+   private final ThreadLocal<double[][]> batchScratch; // per thread; indices: layer, case * numActivs[layer] + row
+
+   public static final int BATCH_CASES = 64; // the number of cases predictBatch propagates together
+
+   /**
+    * Creates a Model from a copy of a network's topology, weights and wrapper functions
+    *
+    * @param numActivs numActivs[n] = number of activations in layer n (layer 0 = inputs)
+    * @param weights the weights, packed as in Perceptron11 ([layer][right * numActivs[layer] + left])
+    * @param activations the wrapper function of each layer (layer 0 has none)
+    */
+   public Model(int[] numActivs, double[][] weights, Activation[] activations)
+   {
+      this.numActivs = numActivs.clone();
+      this.activations = activations.clone();
+      this.weights = new double[weights.length][];
+
+      for (int layer = 0; layer < weights.length; layer++)
+      {
+         this.weights[layer] = weights[layer].clone();
+      }
+
+      int maxActivs = 0;
+
+      for (int layer = 0; layer < numActivs.length; layer++)
+      {
+         maxActivs = Math.max(maxActivs, numActivs[layer]);
+      }
+
+      int layers = numActivs.length;
+      int thetaLength = maxActivs;
+
+      scratch = ThreadLocal.withInitial(() ->
+      {
+         double[][] arrays = new double[layers + 1][];
+
+         for (int layer = 0; layer < layers; layer++)
+         {
+            arrays[layer] = new double[this.numActivs[layer]];
+         }
+
+         arrays[layers] = new double[thetaLength];
+
+         return arrays;
+      });
+
+      batchScratch = ThreadLocal.withInitial(() ->
+      {
+         double[][] arrays = new double[layers + 1][];
+
+         for (int layer = 0; layer < layers; layer++)
+         {
+            arrays[layer] = new double[BATCH_CASES * this.numActivs[layer]];
+         }
+
+         arrays[layers] = new double[BATCH_CASES * thetaLength];
+
+         return arrays;
+      });
+   } // public Model(int[] numActivs, double[][] weights, Activation[] activations)
+
+   /**
+    * Propagates one case through the network. Safe to call from many threads at once.
+    *
+    * @param inputs the inputs of the case; must hold at least numInputs() values
+    * @param outputs the array the outputs are copied into; must hold at least numOutputs() values
+    * @return the given outputs array
+    */
+   public double[] predict(double[] inputs, double[] outputs)
+   {
+      double[][] activs = scratch.get();
+      double[] thetas = activs[numActivs.length];
+
+      System.arraycopy(inputs, 0, activs[0], 0, numActivs[0]);
+
+      for (int layer = 1; layer < numActivs.length; layer++)
+      {
+         double[] leftActivs = activs[layer - 1];
+         double[] layerWeights = weights[layer - 1];
+         int numLeft = numActivs[layer - 1];
+
+         for (int right = 0; right < numActivs[layer]; right++)
+         {
+            thetas[right] = Kernels.KERNELS.dot(leftActivs, 0, layerWeights, right * numLeft, numLeft);
+         }
+
+         activations[layer].activate(thetas, activs[layer], 0, numActivs[layer] - 1);
+      } // for (int layer = 1; layer < numActivs.length; layer++)
+
+      int outputLayer = numActivs.length - 1;
+
+      System.arraycopy(activs[outputLayer], 0, outputs, 0, numActivs[outputLayer]);
+
+      return outputs;
+   } // public double[] predict(double[] inputs, double[] outputs)
+
+   /**
+    * Propagates many cases through the network. Safe to call from many threads at once.
+    *
+    * @param inputs indices: case, input; each case must hold at least numInputs() values
+    * @return indices: case, output; the outputs of every case
+    */
+   public double[][] predictBatch(double[][] inputs)
+   {
+      int numInputs = numActivs[0];
+      int numOutputs = numActivs[numActivs.length - 1];
+      double[] flatInputs = new double[inputs.length * numInputs];
+      double[] flatOutputs = new double[inputs.length * numOutputs];
+
+      for (int c = 0; c < inputs.length; c++)
+      {
+         System.arraycopy(inputs[c], 0, flatInputs, c * numInputs, numInputs);
+      }
+
+      predictBatch(flatInputs, inputs.length, flatOutputs);
+
+      double[][] outputs = new double[inputs.length][numOutputs];
+
+      for (int c = 0; c < inputs.length; c++)
+      {
+         System.arraycopy(flatOutputs, c * numOutputs, outputs[c], 0, numOutputs);
+      }
+
+      return outputs;
+   } // public double[][] predictBatch(double[][] inputs)
+
+   /**
+    * Propagates many cases, stored row-major (one row per case), through the network
+    * without allocating. Safe to call from many threads at once.
+    *
+    * @param inputs the inputs of case c at [c * numInputs() + i]
+    * @param cases the number of cases
+    * @param outputs where the outputs of case c are stored, at [c * numOutputs() + k]
+    */
+   public void predictBatch(double[] inputs, int cases, double[] outputs)
+   {
+      double[][] activs = batchScratch.get();
+      double[] thetas = activs[numActivs.length];
+      int outputLayer = numActivs.length - 1;
+
+      for (int first = 0; first < cases; first += BATCH_CASES)
+      {
+         int block = Math.min(BATCH_CASES, cases - first);
+
+         System.arraycopy(inputs, first * numActivs[0], activs[0], 0, block * numActivs[0]);
+
+         for (int layer = 1; layer <= outputLayer; layer++)
+         {
+            MatrixMath.multiplyTransposeB(activs[layer - 1], weights[layer - 1], thetas,
+                  block, numActivs[layer], numActivs[layer - 1]);
+
+            activations[layer].activate(thetas, activs[layer], 0, block * numActivs[layer] - 1);
+         }
+
+         System.arraycopy(activs[outputLayer], 0, outputs, first * numActivs[outputLayer],
+               block * numActivs[outputLayer]);
+      } // for (int first = 0; first < cases; first += BATCH_CASES)
+   } // public void predictBatch(double[] inputs, int cases, double[] outputs)
+
+   /**
+    * Gets the number of inputs each case must have
+    *
+    * @return the size of the input layer
+    */
+   public int numInputs()
+   {
+      return numActivs[0];
+   }
+
+   /**
+    * Gets the number of outputs predict produces
+    *
+    * @return the size of the output layer
+    */
+   public int numOutputs()
+   {
+      return numActivs[numActivs.length - 1];
+   }
+
+} // public final class Model
@@ -0,0 +1,223 @@
+package neuralnets;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes trained networks in a compact binary format, so that weights can be
+ * saved at the end of a run and loaded again (for a warm start or for a Model) without
+ * parsing any text. Everything is little-endian:
+ *
+ *    int      MAGIC ("NNet")
+ *    int      VERSION
+ *    int      number of layers, L (including the input layer)
+ *    int[L]   numActivs
+ *    for each layer from 1 to L - 1: a short (the length in bytes) then the UTF-8 name of its Activation
+ *    byte     bytes per weight: 8 for double, 4 for float
+ *    then each layer of weights in turn, packed exactly as in memory ([right * numActivs[layer] + left])
+ *
+ * Files are read through FileChannel.map, and each layer is copied out of the mapped file
+ * with one bulk get, so even a network with millions of weights loads in milliseconds.
+ *
+ * Methods included:
+ * ModelFile(int[] numActivs, double[][] weights, Activation[] activations, boolean singlePrecision)
+ * ModelFile load(File file) throws IOException
+ * void      save(File file) throws IOException
+ * Model     model()
+ * void      writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+public final class ModelFile
+{
+   public static final int MAGIC = 0x74654E4E; // "NNet" when read as little-endian bytes
+   public static final int VERSION = 1;
+
+   public final int[] numActivs; // numActivs[n] = number of activations in layer n (layer 0 = inputs)
+   public final double[][] weights; // indices: layer, right * numActivs[layer] + left
+   public final Activation[] activations; // indices: layer; the wrapper function of each layer (layer 0 has none)
+   public final boolean singlePrecision; // true if the weights are stored as floats
+
+   /**
+    * Creates a ModelFile holding the given network (without copying it)
+    *
+    * @param numActivs numActivs[n] = number of activations in layer n (layer 0 = inputs)
+    * @param weights the weights, packed as in Perceptron11
+    * @param activations the wrapper function of each layer (layer 0 has none)
+    * @param singlePrecision true to store the weights as floats (half the size, rounded to float)
+    */
+   public ModelFile(int[] numActivs, double[][] weights, Activation[] activations, boolean singlePrecision)
+   {
+      this.numActivs = numActivs;
+      this.weights = weights;
+      this.activations = activations;
+      this.singlePrecision = singlePrecision;
+   }
+
+   /**
+    * Reads a network from a binary model file
+    *
+    * @param file the file to read
+    * @return the network in the file
+    * @throws IOException if the file cannot be read
+    * @throws RuntimeException if the file is not a model file or has an unknown version
+    */
+   public static ModelFile load(File file) throws IOException
+   {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+      {
+         MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+         if (buffer.getInt() != MAGIC)
+         {
+            throw new RuntimeException("Not a model file: \"" + file + "\"");
+         }
+
+         int version = buffer.getInt();
+
+         if (version != VERSION)
+         {
+            throw new RuntimeException("Unsupported model file version " + version + " in \"" + file + "\"");
+         }
+
+         int[] numActivs = new int[buffer.getInt()];
+
+         for (int layer = 0; layer < numActivs.length; layer++)
+         {
+            numActivs[layer] = buffer.getInt();
+         }
+
+         Activation[] activations = new Activation[numActivs.length];
+
+         for (int layer = 1; layer < numActivs.length; layer++)
+         {
+            byte[] name = new byte[buffer.getShort()];
+            buffer.get(name);
+            activations[layer] = Activation.fromName(new String(name, StandardCharsets.UTF_8));
+         }
+
+         boolean singlePrecision = buffer.get() == Float.BYTES;
+         double[][] weights = new double[numActivs.length - 1][];
+
+         for (int layer = 0; layer < weights.length; layer++)
+         {
+            int count = numActivs[layer] * numActivs[layer + 1];
+            weights[layer] = new double[count];
+
+            if (singlePrecision)
+            {
+               float[] floats = new float[count];
+               buffer.asFloatBuffer().get(floats);
+
+               for (int w = 0; w < count; w++)
+               {
+                  weights[layer][w] = floats[w];
+               }
+            }
+            else
+            {
+               buffer.asDoubleBuffer().get(weights[layer]);
+            }
+
+            buffer.position(buffer.position() + count * (singlePrecision ? Float.BYTES : Double.BYTES));
+         } // for (int layer = 0; layer < weights.length; layer++)
+
+         return new ModelFile(numActivs, weights, activations, singlePrecision);
+      } // try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+   } // public static ModelFile load(File file) throws IOException
+
+   /**
+    * Writes this network to a binary model file, replacing the file if it exists
+    *
+    * @param file the file to write
+    * @throws IOException if the file cannot be written
+    */
+   public void save(File file) throws IOException
+   {
+      int weightBytes = singlePrecision ? Float.BYTES : Double.BYTES;
+      int headerBytes = 3 * Integer.BYTES + numActivs.length * Integer.BYTES + 1; // MAGIC, VERSION, L, numActivs, bytes per weight
+      byte[][] names = new byte[numActivs.length][];
+
+      for (int layer = 1; layer < numActivs.length; layer++)
+      {
+         names[layer] = activations[layer].toString().getBytes(StandardCharsets.UTF_8);
+         headerBytes += Short.BYTES + names[layer].length;
+      }
+
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+      {
+         ByteBuffer header = ByteBuffer.allocate(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+
+         header.putInt(MAGIC).putInt(VERSION).putInt(numActivs.length);
+
+         for (int layer = 0; layer < numActivs.length; layer++)
+         {
+            header.putInt(numActivs[layer]);
+         }
+
+         for (int layer = 1; layer < numActivs.length; layer++)
+         {
+            header.putShort((short)names[layer].length).put(names[layer]);
+         }
+
+         header.put((byte)weightBytes);
+         writeFully(channel, header);
+
+         for (double[] layerWeights : weights)
+         {
+            ByteBuffer block = ByteBuffer.allocate(layerWeights.length * weightBytes).order(ByteOrder.LITTLE_ENDIAN);
+
+            if (singlePrecision)
+            {
+               for (double weight : layerWeights)
+               {
+                  block.putFloat((float)weight);
+               }
+            }
+            else
+            {
+               block.asDoubleBuffer().put(layerWeights);
+            }
+
+            writeFully(channel, block);
+         } // for (double[] layerWeights : weights)
+      } // try (FileChannel channel = ...)
+   } // public void save(File file) throws IOException
+
+   /**
+    * Creates a Model that can score cases with this network
+    *
+    * @return a Model with a copy of this network
+    */
+   public Model model()
+   {
+      return new Model(numActivs, weights, activations);
+   }
+
+   /**
+    * Writes the whole of a buffer, from the start, to a channel
+    *
+    * @param channel the channel to write to
+    * @param buffer the buffer to write; its position is where the data ends
+    * @throws IOException if the channel cannot be written
+    */
+   private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+   {
+      buffer.rewind();
+
+      while (buffer.hasRemaining())
+      {
+         channel.write(buffer);
+      }
+   }
+
+} // public final class ModelFile
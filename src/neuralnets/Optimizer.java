@@ -0,0 +1,408 @@
+package neuralnets;
+
+/**
+ * The rule that turns the gradient of every weight into a change of that weight.
+ * Back propagation finds the gradient of weight w (right * numActivs[layer] + left) as
+ * psi of the right neuron times the activation of the left one; g below is that product,
+ * which already points the way the error falls (weights are changed by + lambda * g).
+ *
+ *    sgd                 w += lambda * g
+ *    momentum mu         v = mu * v + lambda * g;                         w += v
+ *    rmsprop rho         s = rho * s + (1 - rho) * g^2;                   w += lambda * g / (sqrt(s) + EPSILON)
+ *    adam beta1 beta2    m = beta1 * m + (1 - beta1) * g;  s = beta2 * s + (1 - beta2) * g^2
+ *                        w += lambda * (m / (1 - beta1^t)) / (sqrt(s / (1 - beta2^t)) + EPSILON)
+ *
+ * Every array of per-weight state (v, s, m) is packed exactly like the weights, one array
+ * per layer, so an update walks the weights and their state with the same index through
+ * contiguous memory. t counts the updates made so far (step() is called once before each).
+ *
+ * Perceptron11 calls prepare once per layer with the activations of its left neurons, and
+ * then updateRow once per right neuron j; the batch modes, which sum the gradients of many
+ * cases first, call delta once per weight instead. Plain sgd keeps the fused update that
+ * Perceptron11 always used: prepare stores lambda * ak, and each row is then one axpy.
+ *
+ * The updates of different rows, and of different ranges of one row, touch different
+ * weights and state, so layers can still be split across threads. Hogwild training only
+ * uses sgd, which has no state for its threads to race on.
+ *
+ * Methods included:
+ * Optimizer create(String name, double[] factors, int[] numActivs)
+ * void       step()
+ * void       prepare(double[] activs, double[] scratch, int n, double lambda)
+ * void       updateRow(int layer, double[] layerWeights, int row, double psi, double[] scratch, int first, int count, double lambda)
+ * double     delta(int layer, int w, double gradient, double lambda)
+ * void       updateSparseRow(int layer, double[] layerWeights, int row, double psi, double[] scratch, int[] runs, int count, double lambda)
+ * double[][][] state()
+ * double[][] packedLike(int[] numActivs)
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+public abstract class Optimizer
+{
+   public static final double EPSILON = 1e-8; // keeps the rmsprop and adam steps finite where s is 0
+
+   public long steps; // t, the number of updates made so far
+
+   /**
+    * Creates an optimizer from its name and factors, as given in a configuration file
+    *
+    * @param name "sgd", "momentum", "rmsprop" or "adam"
+    * @param factors no factors for sgd, mu for momentum, rho for rmsprop, beta1 and beta2 for adam
+    * @param numActivs numActivs[n] = number of activations in layer n; sizes the per-weight state
+    * @return the optimizer
+    * @throws RuntimeException if the name is unknown, or the factors are the wrong number or not in [0, 1)
+    */
+   public static Optimizer create(String name, double[] factors, int[] numActivs)
+   {
+      int needed;
+
+      if (name.equals("sgd"))
+      {
+         needed = 0;
+      }
+      else if (name.equals("momentum") || name.equals("rmsprop"))
+      {
+         needed = 1;
+      }
+      else if (name.equals("adam"))
+      {
+         needed = 2;
+      }
+      else
+      {
+         throw new RuntimeException("Invalid optimizer: \"" + name + "\"");
+      }
+
+      if (factors.length != needed)
+      {
+         throw new RuntimeException("The " + name + " optimizer needs " + needed + " factor(s), not " + factors.length);
+      }
+
+      for (double factor : factors)
+      {
+         if (factor < 0.0 || factor >= 1.0)
+         {
+            throw new RuntimeException("The factors of the " + name + " optimizer must be at least 0 and less than 1");
+         }
+      }
+
+      Optimizer optimizer;
+
+      if (name.equals("sgd"))
+      {
+         optimizer = new Sgd();
+      }
+      else if (name.equals("momentum"))
+      {
+         optimizer = new Momentum(factors[0], numActivs);
+      }
+      else if (name.equals("rmsprop"))
+      {
+         optimizer = new RmsProp(factors[0], numActivs);
+      }
+      else
+      {
+         optimizer = new Adam(factors[0], factors[1], numActivs);
+      }
+
+      return optimizer;
+   } // public static Optimizer create(String name, double[] factors, int[] numActivs)
+
+   /**
+    * Counts one more update; called once before the weights change for a case or a batch
+    */
+   public void step()
+   {
+      steps++;
+   }
+
+   /**
+    * Gets a layer ready for updateRow by storing what each row's update needs from the
+    * activations of the layer's left neurons. The default stores the activations themselves.
+    *
+    * @param activs the activations of the left neurons
+    * @param scratch where the prepared values are stored, at the same indices
+    * @param n the number of left neurons
+    * @param lambda the learning rate
+    */
+   public void prepare(double[] activs, double[] scratch, int n, double lambda)
+   {
+      System.arraycopy(activs, 0, scratch, 0, n);
+   }
+
+   /**
+    * Updates a range of the weights entering one right neuron, whose gradients are psi
+    * times the activations of the left neurons
+    *
+    * @param layer the index of the layer of weights
+    * @param layerWeights the weights of the layer
+    * @param row the index of the first weight to update (right * numActivs[layer] + first)
+    * @param psi the psi of the right neuron
+    * @param scratch the values prepare stored for the layer
+    * @param first the first left neuron to update
+    * @param count the number of left neurons to update
+    * @param lambda the learning rate
+    */
+   public abstract void updateRow(int layer, double[] layerWeights, int row, double psi, double[] scratch,
+         int first, int count, double lambda);
+
+   /**
+    * Finds the change of one weight from its gradient (summed over a batch), updating its state
+    *
+    * @param layer the index of the layer of weights
+    * @param w the index of the weight in the layer
+    * @param gradient the gradient of the weight
+    * @param lambda the learning rate
+    * @return the amount to add to the weight
+    */
+   public abstract double delta(int layer, int w, double gradient, double lambda);
+
+   /**
+    * Updates the weights entering one right neuron, for left neurons whose activations are
+    * zero outside the given runs. The default updates the whole row, since a zero gradient
+    * still changes a weight with state: momentum keeps moving, and rmsprop and adam decay
+    * their running means. Sgd leaves a weight with a zero gradient unchanged, so it only
+    * updates the weights inside the runs.
+    *
+    * @param layer the index of the layer of weights
+    * @param layerWeights the weights of the layer
+    * @param row the index of the weight from left neuron 0 (right * numActivs[layer])
+    * @param psi the psi of the right neuron
+    * @param scratch the values prepare stored for the layer
+    * @param runs the start and end of every run of nonzero left neurons (see Kernels.sparseDot)
+    * @param count the number of left neurons
+    * @param lambda the learning rate
+    */
+   public void updateSparseRow(int layer, double[] layerWeights, int row, double psi, double[] scratch,
+         int[] runs, int count, double lambda)
+   {
+      updateRow(layer, layerWeights, row, psi, scratch, 0, count, lambda);
+   }
+
+   /**
+    * Gets the per-weight state, for checkpoints
+    *
+    * @return indices: kind of state, layer, weight (packed like the weights); no arrays for sgd
+    */
+   public abstract double[][][] state();
+
+   /**
+    * Allocates one array per layer of weights, each the size of the layer
+    *
+    * @param numActivs numActivs[n] = number of activations in layer n
+    * @return zeroed arrays packed like the weights
+    */
+   static double[][] packedLike(int[] numActivs)
+   {
+      double[][] arrays = new double[numActivs.length - 1][];
+
+      for (int layer = 0; layer < arrays.length; layer++)
+      {
+         arrays[layer] = new double[numActivs[layer] * numActivs[layer + 1]];
+      }
+
+      return arrays;
+   }
+
+   /**
+    * Plain (stochastic) gradient descent, with no state
+    */
+   private static final class Sgd extends Optimizer
+   {
+      @Override
+      public void prepare(double[] activs, double[] scratch, int n, double lambda)
+      {
+         for (int k = 0; k < n; k++)
+         {
+            scratch[k] = lambda * activs[k]; // lambda * ak, shared by every j
+         }
+      }
+
+      @Override
+      public void updateRow(int layer, double[] layerWeights, int row, double psi, double[] scratch,
+            int first, int count, double lambda)
+      {
+         Kernels.KERNELS.axpy(psi, scratch, first, layerWeights, row, count);
+      }
+
+      @Override
+      public double delta(int layer, int w, double gradient, double lambda)
+      {
+         return lambda * gradient;
+      }
+
+      @Override
+      public void updateSparseRow(int layer, double[] layerWeights, int row, double psi, double[] scratch,
+            int[] runs, int count, double lambda)
+      {
+         Kernels.KERNELS.sparseAxpy(psi, scratch, runs, layerWeights, row);
+      }
+
+      @Override
+      public double[][][] state()
+      {
+         return new double[0][][];
+      }
+   } // private static final class Sgd extends Optimizer
+
+   /**
+    * Gradient descent with momentum: each weight keeps moving the way it has been moving
+    */
+   private static final class Momentum extends Optimizer
+   {
+      private final double mu; // the fraction of the previous change kept in the next
+      private final double[][] velocities; // v, packed like the weights
+
+      Momentum(double mu, int[] numActivs)
+      {
+         this.mu = mu;
+         this.velocities = packedLike(numActivs);
+      }
+
+      @Override
+      public void prepare(double[] activs, double[] scratch, int n, double lambda)
+      {
+         for (int k = 0; k < n; k++)
+         {
+            scratch[k] = lambda * activs[k];
+         }
+      }
+
+      @Override
+      public void updateRow(int layer, double[] layerWeights, int row, double psi, double[] scratch,
+            int first, int count, double lambda)
+      {
+         double[] v = velocities[layer];
+
+         for (int i = 0; i < count; i++)
+         {
+            int w = row + i;
+
+            v[w] = mu * v[w] + psi * scratch[first + i];
+            layerWeights[w] += v[w];
+         }
+      }
+
+      @Override
+      public double delta(int layer, int w, double gradient, double lambda)
+      {
+         double[] v = velocities[layer];
+
+         v[w] = mu * v[w] + lambda * gradient;
+
+         return v[w];
+      }
+
+      @Override
+      public double[][][] state()
+      {
+         return new double[][][] {velocities};
+      }
+   } // private static final class Momentum extends Optimizer
+
+   /**
+    * RMSProp: each weight's step is divided by a running root mean square of its gradients
+    */
+   private static final class RmsProp extends Optimizer
+   {
+      private final double rho; // the fraction of the running mean kept at each update
+      private final double[][] meanSquares; // s, packed like the weights
+
+      RmsProp(double rho, int[] numActivs)
+      {
+         this.rho = rho;
+         this.meanSquares = packedLike(numActivs);
+      }
+
+      @Override
+      public void updateRow(int layer, double[] layerWeights, int row, double psi, double[] scratch,
+            int first, int count, double lambda)
+      {
+         for (int i = 0; i < count; i++)
+         {
+            layerWeights[row + i] += delta(layer, row + i, psi * scratch[first + i], lambda);
+         }
+      }
+
+      @Override
+      public double delta(int layer, int w, double gradient, double lambda)
+      {
+         double[] s = meanSquares[layer];
+
+         s[w] = rho * s[w] + (1.0 - rho) * gradient * gradient;
+
+         return lambda * gradient / (Math.sqrt(s[w]) + EPSILON);
+      }
+
+      @Override
+      public double[][][] state()
+      {
+         return new double[][][] {meanSquares};
+      }
+   } // private static final class RmsProp extends Optimizer
+
+   /**
+    * Adam: a running mean of each weight's gradients, divided by their running root mean
+    * square, both corrected for starting at zero
+    */
+   private static final class Adam extends Optimizer
+   {
+      private final double beta1; // the fraction of the running mean kept at each update
+      private final double beta2; // the fraction of the running mean square kept at each update
+      private final double[][] means; // m, packed like the weights
+      private final double[][] meanSquares; // s, packed like the weights
+
+      private double meanCorrection; // 1 / (1 - beta1^t)
+      private double squareCorrection; // 1 / (1 - beta2^t)
+
+      Adam(double beta1, double beta2, int[] numActivs)
+      {
+         this.beta1 = beta1;
+         this.beta2 = beta2;
+         this.means = packedLike(numActivs);
+         this.meanSquares = packedLike(numActivs);
+      }
+
+      /**
+       * Counts one more update and finds the corrections for it, once per step rather than per weight
+       */
+      @Override
+      public void step()
+      {
+         steps++;
+         meanCorrection = 1.0 / (1.0 - Math.pow(beta1, steps));
+         squareCorrection = 1.0 / (1.0 - Math.pow(beta2, steps));
+      }
+
+      @Override
+      public void updateRow(int layer, double[] layerWeights, int row, double psi, double[] scratch,
+            int first, int count, double lambda)
+      {
+         for (int i = 0; i < count; i++)
+         {
+            layerWeights[row + i] += delta(layer, row + i, psi * scratch[first + i], lambda);
+         }
+      }
+
+      @Override
+      public double delta(int layer, int w, double gradient, double lambda)
+      {
+         double[] m = means[layer];
+         double[] s = meanSquares[layer];
+
+         m[w] = beta1 * m[w] + (1.0 - beta1) * gradient;
+         s[w] = beta2 * s[w] + (1.0 - beta2) * gradient * gradient;
+
+         return lambda * m[w] * meanCorrection / (Math.sqrt(s[w] * squareCorrection) + EPSILON);
+      }
+
+      @Override
+      public double[][][] state()
+      {
+         return new double[][][] {means, meanSquares};
+      }
+   } // private static final class Adam extends Optimizer
+
+} // public abstract class Optimizer
@@ -0,0 +1,94 @@
+package neuralnets;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A tester class that trains one configuration file once with each of a list of optimizers,
+ * every run starting from the same weights, and writes how many iterations each took to
+ * converge to optimizerReport.txt. Each optimizer is given as one argument holding its name,
+ * its lambda and then its factors (see Optimizer), since a good lambda for sgd is far too
+ * large for rmsprop or adam. Each run is logged to "log" + the optimizer's name + "_" + the file name.
+ *
+ * Usage: java neuralnets.OptimizerTester11 [configuration file ["name lambda factors" ...]]
+ * (d.txt with "sgd 0.1" "momentum 0.03 0.9" "rmsprop 0.001 0.9" "adam 0.001 0.9 0.999" if none are given)
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+public class OptimizerTester11
+{
+   /**
+    * Main method that trains the configuration with every optimizer and writes the report.
+    *
+    * @param args the name of the configuration file, then one argument per optimizer
+    * @throws FileNotFoundException
+    * @throws IOException BufferedWriter (output log file writing) failure
+    */
+   public static void main(String[] args) throws FileNotFoundException, IOException
+   {
+      String fileName = args.length > 0 ? args[0] : "d.txt";
+      String[] optimizers = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length)
+            : new String[] {"sgd 0.1", "momentum 0.03 0.9", "rmsprop 0.001 0.9", "adam 0.001 0.9 0.999"};
+
+      PerceptronConfigurer11 config = new PerceptronConfigurer11(new File(fileName));
+
+      // every run starts from the weights in the file (or drawn from its seed)
+      double[][] initialWeights = new double[config.weights.length][];
+
+      for (int layer = 0; layer < initialWeights.length; layer++)
+      {
+         initialWeights[layer] = config.weights[layer].clone();
+      }
+
+      BufferedWriter report = new BufferedWriter(new FileWriter("optimizerReport.txt"));
+
+      report.write(fileName + " (errorThreshold " + config.errorThreshold + ", at most "
+            + config.maxIterations + " iterations, " + config.dataset.size() + " cases per epoch)\n");
+
+      for (String optimizer : optimizers)
+      {
+         String[] words = optimizer.trim().split("\\s+");
+
+         config.optimizerName = words[0];
+         config.lambda = Double.parseDouble(words[1]);
+         config.optimizerFactors = new double[words.length - 2];
+
+         for (int f = 0; f < config.optimizerFactors.length; f++)
+         {
+            config.optimizerFactors[f] = Double.parseDouble(words[f + 2]);
+         }
+
+         if (config.adaptiveLambda && !config.optimizerName.equals("sgd"))
+         {
+            // the constructor only checked the optimizer named in the file
+            report.write(String.format("   %-24s  skipped (adaptiveLambda only trains with the sgd optimizer)\n", optimizer));
+         }
+         else
+         {
+            config.weights = new double[initialWeights.length][];
+
+            for (int layer = 0; layer < initialWeights.length; layer++)
+            {
+               config.weights[layer] = initialWeights[layer].clone();
+            }
+
+            Perceptron11 network = new Perceptron11(config, "log" + words[0] + "_" + fileName);
+            network.run();
+
+            report.write(String.format("   %-24s  iterations: %-7d  max error: %-12.6g  converged: %-3s  cases/sec: %.1f\n",
+                  optimizer, network.iterations, network.maxError,
+                  network.maxError < config.errorThreshold ? "yes" : "no", network.casesPerSecond));
+         } // else clause where the optimizer can train this file
+      } // for (String optimizer : optimizers)
+
+      report.close();
+
+      System.out.println("Done. Comparison written to optimizerReport.txt");
+   } // public static void main(String[] args) throws FileNotFoundException, IOException
+
+} // public class OptimizerTester11
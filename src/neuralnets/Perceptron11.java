@@ -1,7 +1,16 @@
 package neuralnets;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -9,28 +18,95 @@ import java.util.concurrent.TimeUnit;
  * propagated from left to right, and all activations are fully connected with a
  * system of weights to adjacent activations.
  * 
- * Does not utilize adaptive lambda or weight roll back.
+ * Can adapt lambda after every epoch, rolling the weights back to the end of the 
+ * previous epoch when the total error rises (see adaptLambda). 
+ * The weights change by the rule of the configured Optimizer: plain stochastic gradient 
+ * descent by default, or momentum, RMSProp or Adam. 
+ * The runs of nonzero inputs of cases that are mostly zeros (thresholded bitmaps) are 
+ * found once, before training; the first layer then only multiplies, and sgd only 
+ * updates, the weights leaving those runs (see findNonzeroRuns). 
+ * The cases come from a Dataset, which either holds them in memory or reads them from a 
+ * memory-mapped file (see MappedDataset); each case is copied into the Workspace that 
+ * propagates it, so no more than a mini-batch of cases is on the heap at once. 
+ * Each layer can use its own wrapper function (see Activation); all use the sigmoid by default.
+ * Once trained, the network can be pruned to the weights of largest magnitude, optionally 
+ * fine-tuned with the pruned weights held at zero, and compared with its compressed 
+ * sparse form (see prune and SparseNetwork). 
  * Delta Too Small Termination has been removed. 
  * For bitmaps, can only process square images. 
  * 
  * Back propagation has been implemented for any number of hidden layers. 
+ * Trains with stochastic gradient descent by default, or with mini-batches of 
+ * batchSize cases that are propagated together as matrices (see MatrixMath). 
+ * With more than one thread, each mini-batch is split into one contiguous shard 
+ * per thread; each thread back propagates its shard into its own Workspace and 
+ * the gradients are summed in a fixed order, so a run is deterministic for a 
+ * given seed and number of threads. 
+ * Alternatively, "hogwild" mode has every thread run stochastic gradient descent on 
+ * its own shard of the cases against the one shared set of weights, without locks. 
+ * With more than one thread but neither of those modes, single cases are trained 
+ * with the neurons of each wide layer split across the threads. 
+ * Each layer of weights is stored as one array with the weights entering a neuron 
+ * next to each other, so the innermost loops of propagation (a dot product per 
+ * neuron) and back propagation (axpys, y += alpha * x, per neuron) read contiguous 
+ * memory. They are done by Kernels, which uses SIMD instructions when the Java 
+ * Vector API is available. 
+ * In the float precision mode (singlePrecision), stochastic gradient descent trains a 
+ * float copy of the weights in place of the double weights (which are released until 
+ * training ends), reads each case in float and propagates in float, which halves the 
+ * memory the weights take and the memory traffic of the inner loops, and doubles the 
+ * values per SIMD instruction. The errors are still summed and reported in double, and 
+ * the trained float weights are copied back into the weights array when training ends. 
  * 
  * Methods included: 
  * Perceptron11(PerceptronConfigurer11 config, String logFilename) throws IOException
  * void     run() throws IOException
  * void     propNetwork()
  * void     converge() throws IOException
- * void     propInputs(double[] inputs)
- * void     propActivs() 
- * double   calcError(int testCase)
- * void     backProp(int testCase) 
+ * void     startEpochs()
+ * double   epoch(int iter) throws IOException
+ * double   trainEpoch(int iter, double prevError) throws IOException
+ * void     checkpoint(int iter) throws IOException
+ * void     awaitCheckpoint() throws IOException
+ * Checkpoint snapshot(int iter)
+ * int      restoreCheckpoint() throws IOException
+ * void     logQuantization() throws IOException
+ * void     prune() throws IOException
+ * void     fineTunePruned(int[][] pruned)
+ * double   predictSeconds(Model dense, SparseNetwork sparse, double[] caseInputs, double[] outputs)
+ * void     saveWeights()
+ * double   adaptLambda()
+ * double   calcMaxError()
+ * double   calcSampledMaxError()
+ * void     propagate(int testCase)
+ * void     train(int testCase)
+ * int[][]  findNonzeroRuns()
+ * void     propInputs(Workspace ws, int testCase)
+ * void     propActivs(Workspace ws) 
+ * double   calcError(Workspace ws, int testCase)
+ * void     propLayer(Workspace ws, int layer, int firstRight, int lastRight)
+ * void     backProp(Workspace ws, int testCase) 
+ * void     backPropLayer(Workspace ws, int layer, int firstK, int lastK)
+ * void     backPropSparseInputs(Workspace ws, int firstJ, int lastJ)
+ * void     propActivsFloat(int testCase)
+ * void     backPropFloat(int testCase)
+ * boolean  splitLayer(int layer)
+ * void     splitRows(int rows, RowRange range)
+ * void     trainHogwild()
+ * void     trainBatch(int first, int last)
+ * void     accumulateGradients(Workspace ws, int first, int last)
+ * void     applyGradients(int shards, int part, int parts)
+ * double   printSpanDiagnostics(int iter, int first, int last, double prevError)
+ * void     printDiagnostics(int iter, int testCase, double newError, double errorDiff)
  * boolean  end(int iter, double currentError) throws IOException
- * double   wrapper(double n) 
- * double   wrapperPrime(double n)
  * double[] outputs()
+ * double[] outputs(double[] outputs)
+ * Model    model()
+ * SparseNetwork sparseNetwork()
  * void     createBitmap(int iteration, int testCase)
- * String   arrToString(double [][][] arr) 
+ * String   arrToString(double[][] arr) 
  * String   arrToString(double[] arr) 
+ * float[][] toFloat(double[][] arr)
  * double   square(double n) 
  * 
  * @author Ellen Guo
@@ -42,23 +118,75 @@ public class Perceptron11
    public double[][] activs; // indices: layer, row
    public double[][] thetas; // indices: layer, row; each theta corresponds to each activ
    
-   public double[][] inputs; // indices: training case, i
-   public double[][] targets; // indices: training case, k
+   public Dataset dataset; // the training cases, read one case (or mini-batch) at a time
    public int[] numActivs; // numActivs[n] = number of activations in layer n (layer 0 = inputs)
-   public double[][][] weights; // indices: layer, left index, right index
+   public double[][] weights; // indices: layer, right * numActivs[layer] + left
    public int maxIterations;
    public int printOutIteration; // if this var is 10, prints out information every 10 iterations (0, 10, 20, etc.)
    public double errorThreshold;
    public double lambda;
+   public int batchSize; // 1 for stochastic gradient descent, otherwise the number of cases per mini-batch
+   public int threads; // number of worker threads that share each mini-batch, hogwild epoch, or wide layer
+   public boolean hogwild; // true if the threads update the shared weights without locks or batches
+   public boolean fusedStep; // true if errors come from the training's own forward passes instead of re-propagating
+   public boolean recheckError; // true if a fused step's max error is confirmed by re-propagating before termination
+   public boolean singlePrecision; // true if training and propagation store and compute in float instead of double
+   public int quantizeBits; // 8 or 16 to compare the trained network with its quantized version (see QuantizedNetwork), otherwise 0
+   public double pruneThreshold; // weights smaller than this are pruned after training (see Pruner); 0 for none
+   public int pruneTopK; // only the pruneTopK largest weights entering each neuron are kept after training; 0 for all
+   public int pruneFineTune; // the number of epochs the pruned network is trained for, with pruned weights held at zero
+   public Activation[] activations; // indices: layer; the wrapper function of each layer (layer 0 = inputs has none)
    public String fileType; // current options: "bitmap" or "Manual" 
    public boolean squareImage; // true if the image is square, false otherwise
    
    public String logFilename;
+   public String modelFilename; // where run() saves the trained network (see ModelFile)
+   public String checkpointFilename; // where training checkpoints are written (see Checkpoint); null for none
+   public int checkpointEpochs; // a checkpoint is written every checkpointEpochs epochs (0 for never)
+   public double checkpointMinutes; // a checkpoint is written once this many minutes pass since the last (0 for never)
+   public boolean resume; // true if training continues from the checkpoint file when it exists
+   public int checkEvery; // convergence is only checked every checkEvery epochs
+   public int checkSample; // the number of cases whose errors are checked before all of them are (0 for all)
+   public boolean adaptiveLambda; // true if lambda changes after every epoch, with weight roll back
+   public double lambdaGrowth; // lambda is multiplied by this after an epoch that is kept
+   public double lambdaShrink; // lambda is multiplied by this after an epoch that is rolled back
+   public double lambdaTolerance; // an epoch is only rolled back if it raises the total error by more than this fraction
+   public int rollbacks; // the number of epochs that were rolled back
+   public String optimizerName; // sgd, momentum, rmsprop or adam
+   public Optimizer optimizer; // turns the gradients into changes of the weights (sgd by default)
+   public boolean sparseInputs; // true if the first layer skips the zero inputs of sparse cases
    
    public BufferedWriter logFile;
    
    public double startTime;
    
+   public int iterations; // the number of iterations training took; set when converge() finishes
+   public double maxError; // the maximum error across all training sets when training stopped
+   public double casesPerSecond; // the training throughput
+   
+   private double[] caseErrors; // indices: training case; the error found by the latest forward pass during training
+   private Workspace workspace; // holds activs and thetas; used by the main thread for one case at a time
+   private Workspace[] workspaces; // one per worker thread, each big enough for its share of a mini-batch
+   private ForkJoinPool pool; // only created if there is more than one thread
+   private boolean splitLayers; // true if single cases are trained with each wide layer split across threads
+   private FloatWorkspace floatSpace; // only created in float precision; the float counterpart of workspace
+   private float[][] floatWeights; // indices: same as weights; the weights that float precision trains
+   private ExecutorService checkpointWriter; // the background thread that writes checkpoints; null if there are none
+   private Future<?> pendingCheckpoint; // the checkpoint being written, if any
+   private int[] sampleOrder; // indices: every training case, shuffled in part to draw each sample
+   private Random sampler; // chooses the sampled cases
+   private double totalError; // the sum of the errors of every case, found by the latest calcMaxError()
+   private double[][] previousWeights; // indices: same as weights; the weights from the end of the previous epoch
+   private float[][] previousFloatWeights; // the same, for the float weights in float precision
+   private double acceptedError; // the total error of the weights from the end of the previous epoch
+   private double acceptedMaxError; // the maximum error of those weights
+   private double prevError; // the error of the case trained last, for the diagnostics
+   private long trainingTime; // nanoseconds converge has spent training, not counting the convergence checks
+   private int[][] nonzeroRuns; // indices: training case, 2 * run (+ 1); the start (and end) of each run of nonzero inputs; null if dense
+   
+   private static final int SPLIT_THRESHOLD = 1 << 16; // weights in a layer before it is split across threads
+   private static final double SPARSE_FRACTION = 0.5; // the largest fraction of nonzero inputs of a case treated as sparse
+   
    /**
     * Creates an instance of the object Perceptron given a set of configurations
     * 
@@ -69,307 +197,1760 @@ public class Perceptron11
     */
    public Perceptron11(PerceptronConfigurer11 config, String logFilename) throws IOException
    {
-      this.inputs = config.inputs;
-      this.targets = config.targets;
+      this.dataset = config.dataset;
       this.numActivs = config.numActivs;
       this.weights = config.weights;
       this.maxIterations = config.maxIterations;
       this.printOutIteration = config.printOutIteration;
       this.errorThreshold = config.errorThreshold;
       this.lambda = config.lambda;
+      this.batchSize = config.batchSize;
+      this.threads = config.threads;
+      this.hogwild = config.hogwild;
+      this.fusedStep = config.fusedStep;
+      this.recheckError = config.recheckError;
+      this.singlePrecision = config.singlePrecision;
+      this.quantizeBits = config.quantizeBits;
+      this.pruneThreshold = config.pruneThreshold;
+      this.pruneTopK = config.pruneTopK;
+      this.pruneFineTune = config.pruneFineTune;
+      this.checkpointFilename = config.checkpointFilename;
+      this.checkpointEpochs = config.checkpointEpochs;
+      this.checkpointMinutes = config.checkpointMinutes;
+      this.resume = config.resume;
+      this.checkEvery = config.checkEvery;
+      this.checkSample = config.checkSample;
+      this.adaptiveLambda = config.adaptiveLambda;
+      this.lambdaGrowth = config.lambdaGrowth;
+      this.lambdaShrink = config.lambdaShrink;
+      this.lambdaTolerance = config.lambdaTolerance;
+      this.optimizerName = config.optimizerName;
+      this.sparseInputs = config.sparseInputs;
+      this.optimizer = Optimizer.create(config.optimizerName, config.optimizerFactors, numActivs);
+      this.activations = config.activations;
       this.fileType = config.fileType;
       this.squareImage = config.squareImage;
       
       this.logFilename = logFilename;
+      int extension = logFilename.lastIndexOf('.'); // names without one (or only a leading dot) keep their whole name
+      this.modelFilename = config.modelFilename != null ? config.modelFilename 
+            : (extension > 0 ? logFilename.substring(0, extension) : logFilename) + ".model";
       
       this.logFile = new BufferedWriter(new FileWriter(logFilename));
       
       this.startTime = System.currentTimeMillis();
+   }
+
+   /**
+    * Propagates the network and attempts to converge 
+    * Creates a log file that outputs the following:
+    * 1) cause of termination
+    * 2) iterations
+    * 3) target and calculated value and error of each case
+    * 4) the final weights
+    * Then saves the trained network to modelFilename as a binary ModelFile, which a 
+    * configuration can load again with "weights: File" 
+    * 
+    * @throws IOException BufferedWriter (output log file writing) or model file writing failure
+    */
+   public void run() throws IOException
+   {
+      propNetwork();
+      
+      try
+      {
+         converge();
+      }
+      finally
+      {
+         if (pool != null)
+         {
+            pool.shutdown();
+         }
+         
+         if (checkpointWriter != null)
+         {
+            checkpointWriter.shutdown();
+         }
+      }
+      
+      logFile.close();
       
-      //PerceptronConfigurer11.printNumPic(this.inputs[0]);
+      new ModelFile(numActivs, weights, activations, singlePrecision).save(new File(modelFilename));
+      System.out.println("Model saved to " + modelFilename);
    }
+   
+   /**
+    * Initializes the array of activations based on the numActivs array 
+    * number of columns = length of the numActivs array (ie number of layers) 
+    * number of rows in each column = the number of activations in that layer, 
+    * so no space is wasted padding the narrow layers out to the widest one
+    * Also creates a Workspace for each worker thread and the pool the workers run in, 
+    * and in float precision the float copy of the weights (the network drops its references 
+    * to the double weights, which the configurer still holds, until training ends), 
+    * and the thread that writes checkpoints
+    */
+   void propNetwork() 
+   {
+      workspace = new Workspace(numActivs, 1, false);
+      caseErrors = new double[dataset.size()];
+      
+      activs = workspace.activs;
+      thetas = workspace.thetas;
+      
+      if (hogwild) // each thread propagates one case at a time
+      {
+         workspaces = new Workspace[threads];
+         
+         for (int w = 0; w < threads; w++)
+         {
+            workspaces[w] = new Workspace(numActivs, 1, false);
+         }
+      }
+      else if (batchSize > 1) // each thread holds its whole shard of a batch (one row per case)
+      {
+         int shardSize = (batchSize + threads - 1) / threads; // the largest shard any thread is given
+         
+         workspaces = new Workspace[threads];
+         
+         for (int w = 0; w < threads; w++)
+         {
+            workspaces[w] = new Workspace(numActivs, shardSize, true);
+         }
+      }
+      
+      if (threads > 1)
+      {
+         pool = new ForkJoinPool(threads);
+      }
+      
+      splitLayers = threads > 1 && batchSize == 1 && !hogwild;
+      
+      if (adaptiveLambda && !singlePrecision)
+      {
+         previousWeights = new double[weights.length][];
+         
+         for (int layer = 0; layer < weights.length; layer++)
+         {
+            previousWeights[layer] = new double[weights[layer].length];
+         }
+      }
+      
+      if (sparseInputs && dataset.inMemory()) // one array of runs per case would grow with a streamed dataset
+      {
+         nonzeroRuns = findNonzeroRuns();
+      }
+      
+      if (checkSample > 0 && checkSample < dataset.size())
+      {
+         sampleOrder = new int[dataset.size()];
+         sampler = new Random(1); // a fixed seed; the samples never change where training stops
+         
+         for (int i = 0; i < dataset.size(); i++)
+         {
+            sampleOrder[i] = i;
+         }
+      }
+      
+      if (checkpointFilename != null)
+      {
+         checkpointWriter = Executors.newSingleThreadExecutor(task -> 
+         {
+            Thread thread = new Thread(task, "checkpoint writer");
+            thread.setDaemon(true); // a hung disk must not keep the program alive
+            return thread;
+         });
+      }
+      
+      if (singlePrecision)
+      {
+         floatSpace = new FloatWorkspace(numActivs);
+         floatWeights = toFloat(weights);
+         
+         if (adaptiveLambda)
+         {
+            previousFloatWeights = toFloat(weights);
+         }
+         
+         // only the float weights are trained, so the network lets go of the double weights until converge 
+         // copies the float ones back; a fresh outer array leaves the configurer's arrays untouched
+         weights = new double[weights.length][];
+      } // if (singlePrecision)
+   } // void propNetwork() 
+   
+   /**
+    * Utilizes gradient descent to train the neural network 
+    * Loops through all the test cases, updating the weights with stochastic 
+    * gradient descent back propagation for each case, or once per mini-batch 
+    * if batchSize is greater than 1. 
+    * Logs the training throughput in cases per second so that the serial, 
+    * mini-batch and hogwild modes can be compared. 
+    * 
+    * In the fused step mode (fusedStep), a case is not re-propagated after its update 
+    * unless it is printed, and the maximum error that decides convergence is taken from 
+    * the errors the training's forward passes already found (each from just before that 
+    * case's update) instead of from an extra pass over every case. This removes two of 
+    * the three forward passes per case. With recheckError, an exact pass still confirms 
+    * the maximum error before the Error Threshold termination is declared. 
+    * 
+    * Convergence is only checked every checkEvery epochs (counted from the start of 
+    * training, so a resumed run checks on the same epochs). With checkSample, each check 
+    * first finds the largest error of checkSample cases chosen at random, and the full 
+    * pass over every case is only made if that is below the threshold. The largest error 
+    * of a sample can never be more than the largest error of all the cases, so this stops 
+    * on exactly the epoch a full check would have, only without the full pass on the 
+    * epochs where the sample already fails; if the sample passes, then with confidence 
+    * 1 - (1 - p)^checkSample fewer than a fraction p of the cases are still above the threshold. 
+    * 
+    * Single-threaded training allocates nothing once propNetwork() has sized the 
+    * Workspaces: every scratch array is reused from case to case, and an epoch (see epoch()), 
+    * its convergence check and its adaptive lambda bookkeeping included, allocates nothing 
+    * once warmed up (AllocationTester11 checks this). Only a checkpoint, which copies the 
+    * weights, and the end of training allocate. 
+    * 
+    * With adaptiveLambda, the weights are kept or rolled back and lambda grown or shrunk 
+    * after every epoch (see adaptLambda); each check then reuses the errors that found. 
+    * 
+    * With a checkpoint file, a Checkpoint of the run is written every checkpointEpochs 
+    * epochs or checkpointMinutes minutes, and once more when training ends. Only the copy 
+    * of the weights is made on this thread; the file is written by a background thread 
+    * while training carries on. If the previous checkpoint is still being written, the 
+    * new one is skipped rather than waited for. With resume, training starts from the 
+    * checkpoint instead (if it exists) and continues exactly as the original run would have; 
+    * the restored weights are checked first, so a run that had already ended trains no further. 
+    * The throughput only counts the cases this run trained. 
+    * Writes the final configuration information into a file 
+    * (see run() method documentation for exactly what is written into the file) 
+    * 
+    * @throws IOException BufferedWriter (output log file writing) failure
+    */
+   public void converge() throws IOException
+   {
+      int iter = 0; // iter means iterations
+      boolean end;
+      
+      if (resume && new File(checkpointFilename).exists())
+      {
+         iter = restoreCheckpoint();
+         
+         // a run that had already converged or timed out trains no further; the error is only checked 
+         // on the epochs the original run checked, so that the resumed run stops where it would have
+         end = end(iter, (iter / dataset.size()) % checkEvery == 0 ? calcMaxError() : Double.POSITIVE_INFINITY);
+      }
+      else
+      {
+         end = iter >= maxIterations;
+      }
+      
+      int firstIter = iter; // the iterations trained before this run (by the run that wrote the checkpoint)
+      int epochs = 0; // epochs trained by this run
+      long lastCheckpoint = System.nanoTime();
+      
+      startEpochs();
+      
+      // only image outputs (compression) can be drawn as a bitmap
+      if (fileType.equals("bitmap") && numActivs[numActivs.length - 1] == numActivs[0])
+      {
+         createBitmap(-1, -1); // -1 to indicate that this is the pre-processed image
+      }
+
+      while (!end) 
+      {
+         double epochError = epoch(iter); // the largest error found by this epoch's check
+         
+         iter += dataset.size();
+         epochs++;
+         
+         end = end(iter, epochError);
+         
+         boolean checkpointDue = checkpointEpochs > 0 && epochs % checkpointEpochs == 0 
+               || checkpointMinutes > 0 && System.nanoTime() - lastCheckpoint >= checkpointMinutes * 60e9;
+         
+         if (checkpointFilename != null && !end && checkpointDue)
+         {
+            checkpoint(iter);
+            lastCheckpoint = System.nanoTime();
+         }
+         
+      } // while (!end) 
+      
+      maxError = calcMaxError(); // exact, whichever way the checks were made
+      
+      if (checkpointFilename != null) // the final state, so a run that timed out can be extended
+      {
+         awaitCheckpoint();
+         snapshot(iter).save(new File(checkpointFilename));
+      }
+      
+      if (singlePrecision) // the float weights are the ones that were trained; the double weights were released
+      {
+         for (int layer = 0; layer < weights.length; layer++)
+         {
+            weights[layer] = new double[floatWeights[layer].length];
+            
+            for (int w = 0; w < weights[layer].length; w++)
+            {
+               weights[layer][w] = floatWeights[layer][w];
+            }
+         }
+      }
+
+      // after termination, writes the output log file 
+      
+      System.out.println("Termination Reached. Writing output file now.");
+      
+      logFile.write("Iterations: " + iter + (firstIter > 0 ? " (" + (iter - firstIter) + " by this run)" : "") + "\n\n");
+      
+      iterations = iter;
+      casesPerSecond = trainingTime > 0 ? (iter - firstIter) / (trainingTime / 1e9) : 0.0; // only the cases this run trained
+      System.out.println("Training throughput (cases/sec): " + casesPerSecond);
+      logFile.write("Training throughput (cases/sec): " + casesPerSecond + "\n\n");
+      
+      if (adaptiveLambda)
+      {
+         System.out.println("Final lambda: " + lambda + " Epochs rolled back: " + rollbacks);
+         logFile.write("Final lambda: " + lambda + "\nEpochs rolled back: " + rollbacks + "\n\n");
+      }
+      
+      if (!optimizerName.equals("sgd"))
+      {
+         logFile.write("Optimizer: " + optimizerName + " (" + optimizer.steps + " steps)\n\n");
+      }
+      
+      // writes the target and calculated values and errors for each test case
+      for (int testCase = 0; testCase < dataset.size(); testCase++) 
+      {
+         logFile.write("Case " + testCase + ": Target / Calculated \n");
+         propagate(testCase);
+         
+         for (int output = 0; output < dataset.numOutputs(); output++)
+         {
+            logFile.write(workspace.targets[output] + " ");
+            logFile.write(activs[activs.length - 1][output] + "\n");
+         }
+         
+         logFile.write("Case " + testCase + " total error: " + calcError(workspace, testCase) + "\n\n");
+         
+      } // for (int testCase = 0; testCase < dataset.size(); testCase++) 
+      
+      if (quantizeBits > 0)
+      {
+         logQuantization();
+      }
+      
+      if (pruneThreshold > 0.0 || pruneTopK > 0)
+      {
+         prune();
+      }
+      
+      //logFile.write("Final Weights: \n" + arrToString(weights));
+      
+   } // public void converge() throws IOException
+   
+   /**
+    * Gets ready for the first epoch of converge: with adaptiveLambda, finds the errors of 
+    * the starting weights to compare the first epoch with, and finds the error of the 
+    * first case for the diagnostics. 
+    */
+   void startEpochs()
+   {
+      trainingTime = 0;
+      
+      if (adaptiveLambda)
+      {
+         acceptedMaxError = calcMaxError(); // the errors of the starting weights, to compare the first epoch with
+         acceptedError = totalError;
+      }
+      
+      propagate(0);
+      prevError = calcError(workspace, 0);
+   } // void startEpochs()
+   
+   /**
+    * Trains one epoch of converge and checks it for convergence: everything an epoch does 
+    * but the termination test and the checkpoint. With adaptiveLambda, the weights are 
+    * saved first and then kept or rolled back. Only the training counts towards trainingTime. 
+    * 
+    * @param iter the number of iterations before this epoch
+    * @return the largest error found by this epoch's check, or positive infinity if it was not checked
+    * @throws IOException BufferedWriter (output log file writing) failure
+    */
+   double epoch(int iter) throws IOException
+   {
+      long epochStart = System.nanoTime();
+      
+      if (adaptiveLambda) // keep the weights this epoch starts with, in case it has to be undone
+      {
+         saveWeights();
+      }
+      
+      if (hogwild)
+      {
+         trainHogwild();
+         
+         trainingTime += System.nanoTime() - epochStart;
+         prevError = printSpanDiagnostics(iter, 0, dataset.size() - 1, prevError);
+      }
+      else
+      {
+         prevError = trainEpoch(iter, prevError);
+         
+         trainingTime += System.nanoTime() - epochStart;
+      }
+      
+      iter += dataset.size();
+      
+      double epochError; // the largest error found by this epoch's check
+      double adaptedError = adaptiveLambda ? adaptLambda() : 0.0;
+      
+      if ((iter / dataset.size()) % checkEvery != 0)
+      {
+         epochError = Double.POSITIVE_INFINITY; // not checked this epoch, so only a timeout can end it
+      }
+      else if (adaptiveLambda)
+      {
+         epochError = adaptedError; // adaptLambda already propagated every case
+      }
+      else if (fusedStep)
+      {
+         // reuse the errors found by the forward passes the training already did
+         epochError = 0.0;
+         
+         for (int i = 0; i < dataset.size(); i++)
+         {
+            epochError = Math.max(epochError, caseErrors[i]);
+         }
+         
+         if (recheckError && epochError < errorThreshold)
+         {
+            epochError = calcMaxError(); // confirm with the final weights before terminating
+         }
+      } // else if (fusedStep)
+      else if (sampleOrder != null)
+      {
+         epochError = calcSampledMaxError();
+         
+         if (epochError < errorThreshold)
+         {
+            epochError = calcMaxError(); // the sample passed; confirm with every case
+         }
+      }
+      else
+      {
+         epochError = calcMaxError();
+      }
+      
+      return epochError;
+   } // double epoch(int iter) throws IOException
+   
+   /**
+    * Trains every case once, one case or one mini-batch at a time (every mode but hogwild), 
+    * printing diagnostics every printOutIteration iterations: the training part of epoch(). 
+    * 
+    * @param iter the number of iterations before this epoch, for the diagnostics
+    * @param prevError the error of the case trained last, for the diagnostics
+    * @return the error of the case trained last in this epoch
+    * @throws IOException BufferedWriter (output log file writing) failure
+    */
+   private double trainEpoch(int iter, double prevError) throws IOException
+   {
+      if (batchSize > 1)
+      {
+         // loops through all the training sets one mini-batch at a time
+         for (int first = 0; first < dataset.size(); first += batchSize)
+         {
+            int last = Math.min(first + batchSize, dataset.size()) - 1;
+            
+            trainBatch(first, last);
+            
+            prevError = printSpanDiagnostics(iter, first, last, prevError);
+            iter += last - first + 1;
+            
+         } // for (int first = 0; first < dataset.size(); first += batchSize)
+      } // if (batchSize > 1)
+      else
+      {
+         for (int i = 0; i < dataset.size(); i++) // loops through all the training sets
+         {
+            propagate(i);
+            
+            caseErrors[i] = calcError(workspace, i); // error before this case's update
+   
+            train(i);
+            
+            if (!fusedStep)
+            {
+               // re-determine the error with the new weights by re-propagating activations
+               propagate(i);
+               
+               double newError = calcError(workspace, i);
+               double errorDiff = prevError - newError;
+               prevError = newError;
+               
+               // print out diagnostic information every printOutIteration iterations
+               if (iter % printOutIteration == 0) 
+               {
+                  printDiagnostics(iter, i, newError, errorDiff);
+               }
+            } // if (!fusedStep)
+            else if (iter % printOutIteration == 0)
+            {
+               // the fused step only re-propagates when there is something to print
+               prevError = printSpanDiagnostics(iter, i, i, prevError);
+            }
+            
+            iter++;
+            
+         } //for (int i = 0; i < dataset.size(); i++)
+      } // else clause where batchSize == 1
+      
+      return prevError;
+   } // private double trainEpoch(int iter, double prevError) throws IOException
 
    /**
-    * Propagates the network and attempts to converge 
-    * Creates a log file that outputs the following:
-    * 1) cause of termination
-    * 2) iterations
-    * 3) target and calculated value and error of each case
-    * 4) the final weights
+    * Quantizes the trained weights (see QuantizedNetwork) and writes to the log how 
+    * much memory the quantized weights take and how far its outputs can be from those 
+    * of this network: the largest difference of any output of any test case, and the 
+    * largest error of any test case with the quantized outputs. 
+    * 
+    * @throws IOException BufferedWriter (output log file writing) failure
+    */
+   private void logQuantization() throws IOException
+   {
+      QuantizedNetwork quantized = new QuantizedNetwork(numActivs, weights, activations, quantizeBits);
+      double[] quantizedOutputs = new double[numActivs[numActivs.length - 1]];
+      double[] caseInputs = new double[numActivs[0]];
+      double maxDifference = 0.0;
+      double maxQuantizedError = 0.0;
+      
+      for (int testCase = 0; testCase < dataset.size(); testCase++)
+      {
+         propagate(testCase);
+         dataset.readInputs(testCase, caseInputs, 0);
+         quantized.propagate(caseInputs, quantizedOutputs);
+         
+         double error = 0.0;
+         
+         for (int i = 0; i < quantizedOutputs.length; i++)
+         {
+            maxDifference = Math.max(maxDifference, Math.abs(quantizedOutputs[i] - activs[activs.length - 1][i]));
+            error += square(workspace.targets[i] - quantizedOutputs[i]);
+         }
+         
+         maxQuantizedError = Math.max(maxQuantizedError, 0.5 * error);
+      } // for (int testCase = 0; testCase < dataset.size(); testCase++)
+      
+      long doubleBytes = 0;
+      
+      for (double[] layerWeights : weights)
+      {
+         doubleBytes += (long)layerWeights.length * Double.BYTES;
+      }
+      
+      String summary = "Quantized to int" + quantizeBits + ": weights take " + quantized.weightBytes() 
+            + " bytes (" + doubleBytes + " as doubles)\n"
+            + "Largest difference of a quantized output from the trained output: " + maxDifference + "\n"
+            + "Largest error of any case with the quantized outputs: " + maxQuantizedError + "\n\n";
+      
+      System.out.print(summary);
+      logFile.write(summary);
+   } // private void logQuantization() throws IOException
+   
+   /**
+    * Prunes the trained weights (see Pruner), either every weight below pruneThreshold or 
+    * all but the pruneTopK largest entering each neuron, then trains the pruned network 
+    * for pruneFineTune epochs with the pruned weights held at zero. Writes to the log how 
+    * many weights are left, how much memory they take in compressed sparse form (see 
+    * SparseNetwork), how far the pruned outputs are from the trained ones, the largest 
+    * error of any case before and after pruning, and how fast the dense and the sparse 
+    * forms predict. The network keeps the pruned weights, so run() saves them. 
+    * 
+    * @throws IOException BufferedWriter (output log file writing) failure
+    */
+   private void prune() throws IOException
+   {
+      Model dense = model();
+      double[] outputs = new double[numActivs[numActivs.length - 1]];
+      double[] denseOutputs = new double[outputs.length];
+      double[] caseInputs = new double[numActivs[0]];
+      double[] caseTargets = new double[outputs.length];
+      
+      int[][] pruned = pruneTopK > 0 ? Pruner.keepLargest(weights, numActivs, pruneTopK) 
+            : Pruner.pruneBelow(weights, pruneThreshold);
+      
+      if (singlePrecision)
+      {
+         Pruner.zero(floatWeights, pruned);
+      }
+      
+      fineTunePruned(pruned);
+      
+      SparseNetwork sparse = sparseNetwork();
+      double maxDifference = 0.0;
+      double maxDenseError = 0.0;
+      double maxPrunedError = 0.0;
+      int converged = 0;
+      
+      for (int testCase = 0; testCase < dataset.size(); testCase++)
+      {
+         dataset.readInputs(testCase, caseInputs, 0);
+         dataset.readTargets(testCase, caseTargets, 0);
+         dense.predict(caseInputs, denseOutputs);
+         sparse.predict(caseInputs, outputs);
+         
+         double denseError = 0.0;
+         double prunedError = 0.0;
+         
+         for (int i = 0; i < outputs.length; i++)
+         {
+            maxDifference = Math.max(maxDifference, Math.abs(outputs[i] - denseOutputs[i]));
+            denseError += square(caseTargets[i] - denseOutputs[i]);
+            prunedError += square(caseTargets[i] - outputs[i]);
+         }
+         
+         maxDenseError = Math.max(maxDenseError, 0.5 * denseError);
+         maxPrunedError = Math.max(maxPrunedError, 0.5 * prunedError);
+         
+         if (0.5 * prunedError < errorThreshold)
+         {
+            converged++;
+         }
+      } // for (int testCase = 0; testCase < dataset.size(); testCase++)
+      
+      long numWeights = 0;
+      
+      for (double[] layerWeights : weights)
+      {
+         numWeights += layerWeights.length;
+      }
+      
+      double denseSeconds = predictSeconds(dense, null, caseInputs, outputs);
+      double sparseSeconds = predictSeconds(null, sparse, caseInputs, outputs);
+      
+      String summary = "Pruned " + (pruneTopK > 0 ? "to the " + pruneTopK + " largest weights per neuron" 
+            : "below " + pruneThreshold) + ", fine-tuned for " + pruneFineTune + " epochs: " 
+            + sparse.nonzeroWeights() + " of " + numWeights + " weights left ("
+            + String.format("%.2f", 100.0 * sparse.nonzeroWeights() / numWeights) + "%)\n"
+            + "Sparse weights take " + sparse.weightBytes() + " bytes (" + numWeights * Double.BYTES 
+            + " as dense doubles)\n"
+            + "Largest difference of a pruned output from the trained output: " + maxDifference + "\n"
+            + "Largest error of any case: " + maxDenseError + " trained, " + maxPrunedError + " pruned\n"
+            + "Cases under the error threshold after pruning: " + converged + " of " + dataset.size() + "\n"
+            + "Prediction (cases/sec): " + dataset.size() / denseSeconds + " dense, " 
+            + dataset.size() / sparseSeconds + " sparse\n\n";
+      
+      System.out.print(summary);
+      logFile.write(summary);
+   } // private void prune() throws IOException
+   
+   /**
+    * Trains the pruned network for pruneFineTune epochs, in the way it was trained (one case 
+    * at a time, or in mini-batches), setting the pruned weights back to zero after every 
+    * update so that only the surviving weights learn. Hogwild training fine-tunes one case 
+    * at a time on this thread. In float precision, the fine-tuned float weights are copied 
+    * back into the weights. 
+    * 
+    * @param pruned indices: layer, n; the pruned weights, as returned by Pruner
+    */
+   private void fineTunePruned(int[][] pruned)
+   {
+      for (int epoch = 0; epoch < pruneFineTune; epoch++)
+      {
+         if (batchSize > 1 && !hogwild)
+         {
+            for (int first = 0; first < dataset.size(); first += batchSize)
+            {
+               trainBatch(first, Math.min(first + batchSize, dataset.size()) - 1);
+               Pruner.zero(weights, pruned);
+            }
+         }
+         else
+         {
+            for (int i = 0; i < dataset.size(); i++)
+            {
+               propagate(i);
+               train(i);
+               
+               if (singlePrecision)
+               {
+                  Pruner.zero(floatWeights, pruned);
+               }
+               else
+               {
+                  Pruner.zero(weights, pruned);
+               }
+            } // for (int i = 0; i < dataset.size(); i++)
+         } // else clause where cases are trained one at a time
+      } // for (int epoch = 0; epoch < pruneFineTune; epoch++)
+      
+      if (singlePrecision)
+      {
+         for (int layer = 0; layer < weights.length; layer++)
+         {
+            for (int w = 0; w < weights[layer].length; w++)
+            {
+               weights[layer][w] = floatWeights[layer][w];
+            }
+         }
+      }
+   } // private void fineTunePruned(int[][] pruned)
+   
+   /**
+    * Times predicting every training case, after one untimed pass to warm up, with either 
+    * the dense Model or the SparseNetwork, repeating until at least a quarter of a second 
+    * has passed 
+    * 
+    * @param dense the dense model to time, or null to time sparse
+    * @param sparse the sparse network to time if dense is null
+    * @param caseInputs an array that can hold the inputs of a case
+    * @param outputs an array that can hold the outputs
+    * @return the average seconds taken to predict every case once
+    */
+   private double predictSeconds(Model dense, SparseNetwork sparse, double[] caseInputs, double[] outputs)
+   {
+      int rounds = -1; // the first round warms up
+      long start = 0;
+      long elapsed = 0;
+      
+      while (elapsed < 250_000_000L)
+      {
+         if (rounds == 0)
+         {
+            start = System.nanoTime();
+         }
+         
+         for (int testCase = 0; testCase < dataset.size(); testCase++)
+         {
+            dataset.readInputs(testCase, caseInputs, 0);
+            
+            if (dense != null)
+            {
+               dense.predict(caseInputs, outputs);
+            }
+            else
+            {
+               sparse.predict(caseInputs, outputs);
+            }
+         }
+         
+         rounds++;
+         elapsed = rounds > 0 ? System.nanoTime() - start : 0;
+      } // while (elapsed < 250_000_000L)
+      
+      return elapsed / 1e9 / rounds;
+   } // private double predictSeconds(Model dense, SparseNetwork sparse, double[] caseInputs, double[] outputs)
+   
+   /**
+    * Starts writing a checkpoint of the current state on the background thread, 
+    * unless the previous checkpoint is still being written 
+    * 
+    * @param iter the number of iterations trained so far
+    * @throws IOException if the previous checkpoint could not be written
+    */
+   private void checkpoint(int iter) throws IOException
+   {
+      if (pendingCheckpoint == null || pendingCheckpoint.isDone())
+      {
+         awaitCheckpoint(); // reports a failure of the previous write
+         
+         Checkpoint snapshot = snapshot(iter);
+         File file = new File(checkpointFilename);
+         
+         pendingCheckpoint = checkpointWriter.submit(() -> 
+         {
+            snapshot.save(file);
+            return null;
+         });
+      }
+   } // private void checkpoint(int iter) throws IOException
+   
+   /**
+    * Waits for the checkpoint being written, if any, to finish
+    * 
+    * @throws IOException if the checkpoint could not be written
+    */
+   private void awaitCheckpoint() throws IOException
+   {
+      if (pendingCheckpoint != null)
+      {
+         try
+         {
+            pendingCheckpoint.get();
+         }
+         catch (ExecutionException e)
+         {
+            throw new IOException("Checkpoint could not be written to " + checkpointFilename, e.getCause());
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing checkpoint " + checkpointFilename, e);
+         }
+         
+         pendingCheckpoint = null;
+      } // if (pendingCheckpoint != null)
+   } // private void awaitCheckpoint() throws IOException
+   
+   /**
+    * Copies the current state of training, so that it can be written while training carries on 
+    * 
+    * @param iter the number of iterations trained so far
+    * @return a Checkpoint with its own copy of the weights being trained and the optimizer's state
+    */
+   private Checkpoint snapshot(int iter)
+   {
+      double[][] copy = new double[weights.length][];
+      
+      for (int layer = 0; layer < weights.length; layer++)
+      {
+         copy[layer] = new double[singlePrecision ? floatWeights[layer].length : weights[layer].length];
+         
+         for (int w = 0; w < copy[layer].length; w++)
+         {
+            copy[layer][w] = singlePrecision ? floatWeights[layer][w] : weights[layer][w];
+         }
+      }
+      
+      double[][][] state = optimizer.state();
+      double[][][] stateCopy = new double[state.length][weights.length][];
+      
+      for (int kind = 0; kind < state.length; kind++)
+      {
+         for (int layer = 0; layer < weights.length; layer++)
+         {
+            stateCopy[kind][layer] = state[kind][layer].clone();
+         }
+      }
+      
+      return new Checkpoint(iter, lambda, numActivs, copy, optimizer.steps, stateCopy);
+   } // private Checkpoint snapshot(int iter)
+   
+   /**
+    * Loads the checkpoint file and puts its weights, lambda and optimizer state in place 
+    * of the current ones 
+    * 
+    * @return the number of iterations the checkpoint had trained
+    * @throws IOException if the checkpoint cannot be read
+    * @throws RuntimeException if the checkpoint is of a network with different layers, 
+    *                          or was written with an optimizer that keeps different state
+    */
+   private int restoreCheckpoint() throws IOException
+   {
+      Checkpoint saved = Checkpoint.load(new File(checkpointFilename));
+      
+      if (!Arrays.equals(saved.numActivs, numActivs))
+      {
+         throw new RuntimeException("The checkpoint " + checkpointFilename + " has layers " 
+               + Arrays.toString(saved.numActivs) + ", not " + Arrays.toString(numActivs));
+      }
+      
+      double[][][] state = optimizer.state();
+      
+      if (saved.optimizerState.length != state.length)
+      {
+         throw new RuntimeException("The checkpoint " + checkpointFilename + " has " + saved.optimizerState.length 
+               + " kind(s) of optimizer state, but the " + optimizerName + " optimizer keeps " + state.length);
+      }
+      
+      lambda = saved.lambda;
+      optimizer.steps = saved.steps;
+      
+      for (int kind = 0; kind < state.length; kind++)
+      {
+         for (int layer = 0; layer < weights.length; layer++)
+         {
+            System.arraycopy(saved.optimizerState[kind][layer], 0, state[kind][layer], 0, state[kind][layer].length);
+         }
+      }
+      
+      for (int layer = 0; layer < weights.length; layer++)
+      {
+         for (int w = 0; w < saved.weights[layer].length; w++)
+         {
+            if (singlePrecision) // the double weights are released while the float ones train
+            {
+               floatWeights[layer][w] = (float)saved.weights[layer][w];
+            }
+            else
+            {
+               weights[layer][w] = saved.weights[layer][w];
+            }
+         }
+      }
+      
+      System.out.println("Resuming from " + checkpointFilename + " at iteration " + saved.iterations);
+      
+      return saved.iterations;
+   } // private int restoreCheckpoint() throws IOException
+   
+   /**
+    * Copies the weights into previousWeights before an epoch of adaptive lambda training. 
+    * Every layer is one contiguous array, so this is one bulk copy per layer. 
+    */
+   private void saveWeights()
+   {
+      for (int layer = 0; layer < weights.length; layer++)
+      {
+         if (singlePrecision)
+         {
+            System.arraycopy(floatWeights[layer], 0, previousFloatWeights[layer], 0, floatWeights[layer].length);
+         }
+         else
+         {
+            System.arraycopy(weights[layer], 0, previousWeights[layer], 0, weights[layer].length);
+         }
+      }
+   } // private void saveWeights()
+   
+   /**
+    * Adapts lambda after an epoch: if the total error over every case has not risen by 
+    * more than the fraction lambdaTolerance since the previous epoch, the new weights are 
+    * kept and lambda is multiplied by lambdaGrowth; otherwise the weights are rolled back 
+    * to the end of the previous epoch and lambda is multiplied by lambdaShrink. The 
+    * tolerance lets stochastic gradient descent cross the plateaus where the error 
+    * wobbles upwards for a while, which would otherwise shrink lambda to nothing. 
+    * 
+    * The roll back swaps each layer's array with the copy saveWeights() made, instead of 
+    * copying the old weights back; the arrays holding the rejected weights then become 
+    * the copy that the next epoch overwrites. The outer weights array never changes, 
+    * so everything that shares it sees the rolled back weights. 
+    * 
+    * @return the maximum error of the weights that are kept
+    */
+   private double adaptLambda()
+   {
+      double epochMaxError = calcMaxError();
+      
+      if (totalError <= acceptedError * (1.0 + lambdaTolerance))
+      {
+         acceptedError = totalError;
+         acceptedMaxError = epochMaxError;
+         lambda *= lambdaGrowth;
+      }
+      else
+      {
+         for (int layer = 0; layer < weights.length; layer++)
+         {
+            if (singlePrecision)
+            {
+               float[] rejected = floatWeights[layer];
+               floatWeights[layer] = previousFloatWeights[layer];
+               previousFloatWeights[layer] = rejected;
+            }
+            else
+            {
+               double[] rejected = weights[layer];
+               weights[layer] = previousWeights[layer];
+               previousWeights[layer] = rejected;
+            }
+         } // for (int layer = 0; layer < weights.length; layer++)
+         
+         lambda *= lambdaShrink;
+         rollbacks++;
+      } // else clause where the total error did not fall
+      
+      return acceptedMaxError;
+   } // private double adaptLambda()
+   
+   /**
+    * Calculates the maximum error across all test cases by propagating each one 
+    * with the current weights. Also leaves the sum of their errors in totalError. 
+    * 
+    * @return the largest error of any test case
+    */
+   private double calcMaxError()
+   {
+      double maxError = 0.0;
+      
+      totalError = 0.0;
+      
+      for (int i = 0; i < dataset.size(); i++)
+      {
+         propagate(i);
+         
+         double error = calcError(workspace, i);
+         
+         totalError += error;
+         
+         if (error > maxError) 
+         {
+            maxError = error;
+         }
+      }
+      
+      return maxError;
+   } // private double calcMaxError()
+   
+   /**
+    * Propagates one test case through the network on the main thread, in whichever 
+    * precision the network trains in. In float precision, the outputs are copied 
+    * into the (double) output activations afterwards, so that calcError and the 
+    * diagnostics read them from the same place in either precision. 
+    * 
+    * @param testCase the index of the test case to propagate
+    */
+   private void propagate(int testCase)
+   {
+      if (singlePrecision)
+      {
+         propActivsFloat(testCase);
+         dataset.readTargets(testCase, workspace.targets, 0);
+         
+         int outputLayer = numActivs.length - 1;
+         
+         for (int i = 0; i < numActivs[outputLayer]; i++)
+         {
+            workspace.activs[outputLayer][i] = floatSpace.activs[outputLayer][i];
+         }
+      }
+      else
+      {
+         propInputs(workspace, testCase);
+         propActivs(workspace);
+      }
+   } // private void propagate(int testCase)
+   
+   /**
+    * Updates the weights with one step of stochastic gradient descent on a test case 
+    * that propagate(testCase) has just propagated, in whichever precision the network 
+    * trains in 
+    * 
+    * @param testCase the index of the test case
+    */
+   private void train(int testCase)
+   {
+      if (singlePrecision)
+      {
+         backPropFloat(testCase);
+      }
+      else
+      {
+         backProp(workspace, testCase);
+      }
+   }
+   
+   /**
+    * Calculates the maximum error across a random sample of checkSample test cases 
+    * (without repeats), by propagating each one with the current weights 
+    * 
+    * @return the largest error of any test case in the sample
+    */
+   private double calcSampledMaxError()
+   {
+      double maxSampleError = 0.0;
+      
+      for (int n = 0; n < checkSample; n++)
+      {
+         // a partial Fisher-Yates shuffle: the first n entries of sampleOrder are the cases drawn so far
+         int pick = n + sampler.nextInt(dataset.size() - n);
+         int testCase = sampleOrder[pick];
+         
+         sampleOrder[pick] = sampleOrder[n];
+         sampleOrder[n] = testCase;
+         
+         propagate(testCase);
+         maxSampleError = Math.max(maxSampleError, calcError(workspace, testCase));
+      }
+      
+      return maxSampleError;
+   } // private double calcSampledMaxError()
+   
+   /**
+    * Finds the runs of consecutive nonzero inputs of every test case, once before training. 
+    * Each run is listed as its first index and one past its last, in increasing order. 
+    * A case whose nonzero inputs are more than SPARSE_FRACTION of them gets null instead, 
+    * since it would skip too little to pay for the extra loop over its runs. 
+    * Only used for datasets held in memory; streamed cases are propagated densely. 
+    * 
+    * @return indices: training case, 2 * run (+ 1); the runs of each sparse case, null for dense ones
+    */
+   private int[][] findNonzeroRuns()
+   {
+      int[][] runs = new int[dataset.size()][];
+      int[] found = new int[numActivs[0] + 1]; // at most one run for every two inputs, two ints each
+      double[] caseInputs = new double[numActivs[0]];
+      
+      for (int testCase = 0; testCase < dataset.size(); testCase++)
+      {
+         dataset.readInputs(testCase, caseInputs, 0);
+         int ends = 0;
+         int nonzeros = 0;
+         
+         for (int i = 0; i < numActivs[0]; i++)
+         {
+            if (caseInputs[i] != 0.0)
+            {
+               if (i == 0 || caseInputs[i - 1] == 0.0) // the start of a run
+               {
+                  found[ends++] = i;
+               }
+               
+               if (i == numActivs[0] - 1 || caseInputs[i + 1] == 0.0) // the end of a run
+               {
+                  found[ends++] = i + 1;
+               }
+               
+               nonzeros++;
+            } // if (caseInputs[i] != 0.0)
+         } // for (int i = 0; i < numActivs[0]; i++)
+         
+         if (nonzeros <= SPARSE_FRACTION * numActivs[0])
+         {
+            runs[testCase] = Arrays.copyOf(found, ends);
+         }
+      } // for (int testCase = 0; testCase < dataset.size(); testCase++)
+      
+      return runs;
+   } // private int[][] findNonzeroRuns()
+   
+   /**
+    * Sets the first layer of activations (input layer) to the inputs of a test case, 
+    * reads its targets into the Workspace, and gives the Workspace the runs of nonzero 
+    * inputs if the case is sparse 
+    * 
+    * @param ws the Workspace whose activations are set
+    * @param testCase the index of the test case whose inputs are used
+    */
+   private void propInputs(Workspace ws, int testCase) 
+   {
+      dataset.readInputs(testCase, ws.activs[0], 0);
+      dataset.readTargets(testCase, ws.targets, 0);
+      
+      ws.nonzeros = nonzeroRuns == null ? null : nonzeroRuns[testCase];
+   }
+   
+   /**
+    * Propagates all the activations within the neural net: Computes each
+    * activation by summing the product of each activation in the preceding layer
+    * with the corresponding weight, then compressing the value with a wrapper
+    * function (the Activation chosen for that layer, sigmoid by default). Also 
+    * stores an array of thetas; for every activation, there is a 
+    * corresponding theta that is the activation value pre-wrapper. 
+    * 
+    * How the indices and loops work: loop through each layer of activations
+    * ("layer") within each layer, loop through every activation in that layer
+    * ("right", ie. the destination) for each of these activations, compute its
+    * value by looping through each activation in the previous layer ("left", ie
+    * source) and multiplying with the corresponding weight, which is packed at 
+    * [layer - 1][right * numActivs[layer - 1] + left]
+    * 
+    * @param ws the Workspace that holds the activations and thetas of the case
+    */
+   private void propActivs(Workspace ws) 
+   {
+      for (int layer = 1; layer < numActivs.length; layer++) 
+      {
+         int numRight = numActivs[layer];
+         
+         if (splitLayer(layer - 1))
+         {
+            int destination = layer;
+            splitRows(numRight, (first, last) -> propLayer(ws, destination, first, last));
+         }
+         else
+         {
+            propLayer(ws, layer, 0, numRight - 1);
+         }
+      } // for (int layer = 1; layer < numActivs.length; layer++) 
+   } // private void propActivs(Workspace ws) 
+   
+   /**
+    * Computes the thetas and activations of a range of neurons in one layer 
+    * from the activations of the layer before it (see propActivs). 
+    * The weights entering one neuron are contiguous, so each theta is a single 
+    * dot product of them with the activations of the layer before. For a sparse case, 
+    * the thetas of the first hidden layer only multiply the nonzero inputs. 
+    * 
+    * @param ws the Workspace that holds the activations and thetas of the case
+    * @param layer the layer being computed
+    * @param firstRight the first neuron in the layer to compute
+    * @param lastRight the last neuron in the layer to compute (inclusive)
+    */
+   private void propLayer(Workspace ws, int layer, int firstRight, int lastRight)
+   {
+      double[] leftActivs = ws.activs[layer - 1];
+      double[] layerWeights = weights[layer - 1];
+      int numLeft = numActivs[layer - 1];
+      int[] nonzeros = layer == 1 ? ws.nonzeros : null;
+      
+      for (int right = firstRight; right <= lastRight; right++) 
+      {
+         if (nonzeros != null) // only the nonzero inputs add anything to the theta
+         {
+            ws.thetas[layer][right] = Kernels.KERNELS.sparseDot(leftActivs, nonzeros, layerWeights, right * numLeft);
+         }
+         else
+         {
+            ws.thetas[layer][right] = Kernels.KERNELS.dot(leftActivs, 0, layerWeights, right * numLeft, numLeft);
+         }
+      }
+      
+      activations[layer].activate(ws.thetas[layer], ws.activs[layer], firstRight, lastRight);
+   } // private void propLayer(Workspace ws, int layer, int firstRight, int lastRight)
+   
+   /**
+    * Calculates the error of the current network configuration 
+    * with regards to a given training set 
+    * 
+    * @param ws the Workspace that holds the calculated outputs
+    * @param testCase the index of the target value array to compare against 
+    * @return the error, as defined as half the sum of the squares of the 
+    *         differences between each real and calculated value
+    */
+   private double calcError(Workspace ws, int testCase) 
+   {
+      double error = 0.0;
+      
+      double[] targetOutputs = ws.targets;
+      double[] outputActivs = ws.activs[ws.activs.length - 1];
+      
+      for (int outputIndex = 0; outputIndex < numActivs[numActivs.length - 1]; outputIndex++)
+      {
+         error += square(targetOutputs[outputIndex] - outputActivs[outputIndex]);
+      }
+      return 0.5 * error;
+   } //private double calcError(Workspace ws, int testCase) 
+   
+   /**
+    * Updates the weights using back propagation and the optimizer (stochastic gradient descent by default)
+    * Can be used with any number of activations in the input, hidden, and output layers
+    * Can be used with any number of hidden layers
+    * 
+    * Only touches the given Workspace and the weights, so hogwild threads can each 
+    * run it at the same time with their own Workspace
+    * 
+    * @param ws the Workspace that holds the propagated activations and thetas of the case
+    * @param testCase the index in the "inputs" array that holds the array of target values Ti
+    *            that the back prop is based on 
+    */
+   private void backProp(Workspace ws, int testCase) 
+   {
+      optimizer.step();
+      
+      // update last layer of weights first
+      int outputLayer = numActivs.length - 1;
+      
+      // the psi of each output is the same for every j, so it is computed once
+      for (int i = 0; i < numActivs[outputLayer]; i++)
+      {
+         double Fi = ws.activs[outputLayer][i]; // already wrapped from propagation
+         
+         ws.psis[outputLayer][i] = ws.targets[i] - Fi; // littleOmegai
+      }
+      
+      activations[outputLayer].multiplyByDerivative(ws.activs[outputLayer], ws.psis[outputLayer], 
+            0, numActivs[outputLayer] - 1);
+      
+      // calculate and update weights for all the other layers, from right to left
+      for (int layer = outputLayer - 1; layer >= 0; layer--) 
+      {
+         // bigPsi of each j in the layer to the right (shared by every k), in place of its bigOmega
+         if (layer < outputLayer - 1)
+         {
+            activations[layer + 1].multiplyByDerivative(ws.activs[layer + 1], ws.psis[layer + 1], 
+                  0, numActivs[layer + 1] - 1);
+         }
+         
+         // what the optimizer needs from every ak (lambda * ak for sgd), shared by every j
+         optimizer.prepare(ws.activs[layer], ws.scratch, numActivs[layer], lambda);
+         
+         if (layer == 0 && ws.nonzeros != null)
+         {
+            // with sgd only the weights leaving nonzero inputs change; split by j, since every j has its own row
+            if (splitLayer(layer))
+            {
+               splitRows(numActivs[1], (first, last) -> backPropSparseInputs(ws, first, last));
+            }
+            else
+            {
+               backPropSparseInputs(ws, 0, numActivs[1] - 1);
+            }
+         }
+         else if (splitLayer(layer))
+         {
+            int klayer = layer;
+            splitRows(numActivs[layer], (first, last) -> backPropLayer(ws, klayer, first, last));
+         }
+         else
+         {
+            backPropLayer(ws, layer, 0, numActivs[layer] - 1);
+         }
+      } // for (int layer = outputLayer - 1; layer >= 0; layer--)
+   } // private void backProp(Workspace ws, int testCase) 
+   
+   /**
+    * Updates the weights leaving a range of neurons k in one layer (toward every 
+    * neuron j in the layer to its right), and stores each of their bigOmegas in 
+    * the psis of the Workspace, where backProp later turns them into bigPsis. 
+    * The weights entering each j are contiguous, so for each j the range of bigOmegas 
+    * gains psi j times those weights (an axpy), and then the optimizer updates those 
+    * weights from psi j and the prepared ak (with sgd, another axpy of psi j times 
+    * lambda * ak). Each bigOmega still sums its products in order of j, and is 
+    * found from the weights before they are changed, exactly as in a loop over k. 
+    * The bigOmegas of the input layer are never used, so they are not computed. 
     * 
-    * @throws IOException BufferedWriter (output log file writing) failure
+    * @param ws the Workspace that holds the (big) psis of the layer to the right 
+    *           and the optimizer's prepared value of every ak
+    * @param layer the layer that the neurons k are in
+    * @param firstK the first neuron k to update
+    * @param lastK the last neuron k to update (inclusive)
     */
-   public void run() throws IOException
+   private void backPropLayer(Workspace ws, int layer, int firstK, int lastK)
    {
-      propNetwork();
-      converge();
-      logFile.close();
-   }
+      int numK = numActivs[layer];
+      int count = lastK - firstK + 1;
+      double[] psis = ws.psis[layer + 1];
+      double[] prepared = ws.scratch;
+      double[] layerWeights = weights[layer];
+      double[] omegas = ws.psis[layer];
+      boolean hidden = layer > 0;
+      
+      if (hidden)
+      {
+         Arrays.fill(omegas, firstK, lastK + 1, 0.0);
+      }
+      
+      for (int j = 0; j < numActivs[layer + 1]; j++)
+      {
+         int row = j * numK + firstK;
+         
+         if (hidden)
+         {
+            Kernels.KERNELS.axpy(psis[j], layerWeights, row, omegas, firstK, count);
+         }
+         
+         optimizer.updateRow(layer, layerWeights, row, psis[j], prepared, firstK, count, lambda);
+      }
+   } // private void backPropLayer(Workspace ws, int layer, int firstK, int lastK)
    
    /**
-    * Initializes the array of activations based on the numActivs array 
-    * number of columns = length of the numActivs array (ie number of layers) 
-    * number of rows = the maximum activations of the longest layer dictated by numActivs
+    * Updates the weights entering a range of neurons j in the first hidden layer for a 
+    * sparse case. With sgd the weights leaving a zero input would gain psi j times zero, 
+    * so they are skipped (see Optimizer.updateSparseRow), and the bigOmegas of the input 
+    * layer are never used. Changes the weights exactly as backPropLayer would. 
+    * 
+    * @param ws the Workspace that holds the psis of the first hidden layer, the optimizer's 
+    *           prepared value of every input k, and the runs of nonzero inputs of the case
+    * @param firstJ the first neuron j whose weights are updated
+    * @param lastJ the last neuron j whose weights are updated (inclusive)
     */
-   private void propNetwork() 
+   private void backPropSparseInputs(Workspace ws, int firstJ, int lastJ)
    {
-      int layers = numActivs.length;
-
-      int maxNeurons = 0;
-      for (int i = 0; i < numActivs.length; i++) 
+      int numK = numActivs[0];
+      double[] psis = ws.psis[1];
+      
+      for (int j = firstJ; j <= lastJ; j++)
       {
-         if (numActivs[i] > maxNeurons)
-            maxNeurons = numActivs[i];
+         optimizer.updateSparseRow(0, weights[0], j * numK, psis[j], ws.scratch, ws.nonzeros, numK, lambda);
       }
-
-      activs = new double[layers][maxNeurons];
-      thetas = new double[layers][maxNeurons];
    }
    
    /**
-    * Utilizes gradient descent to train the neural network 
-    * Loops through all the test cases, updating the weights with stochastic 
-    * gradient descent back propagation for each case. 
-    * Writes the final configuration information into a file 
-    * (see run() method documentation for exactly what is written into the file) 
+    * Propagates one test case in single precision: the float version of propInputs 
+    * followed by propActivs, without layer splitting (float precision is single-threaded). 
     * 
-    * @throws IOException BufferedWriter (output log file writing) failure
+    * @param testCase the index of the test case to propagate
     */
-   public void converge() throws IOException
+   private void propActivsFloat(int testCase)
    {
-      int iter = 0; // iter means iterations
-      boolean end = iter >= maxIterations;
-
-      propInputs(inputs[0]);
+      FloatWorkspace fs = floatSpace;
       
-      propActivs();
-      double prevError = calcError(0);
+      dataset.readInputs(testCase, fs.activs[0], 0);
+      dataset.readTargets(testCase, fs.targets, 0);
       
-      if (fileType.equals("bitmap"))
-      {
-         createBitmap(-1, -1); // -1 to indicate that this is the pre-processed image
-      }
-
-      while (!end) 
+      int[] nonzeros = nonzeroRuns == null ? null : nonzeroRuns[testCase];
+      
+      for (int layer = 1; layer < numActivs.length; layer++) 
       {
-         for (int i = 0; i < inputs.length; i++) // loops through all the training sets
-         {
-            propInputs(inputs[i]);
-            propActivs();
-
-            backProp(i);
-            
-            // re-determine the error with the new weights by re-propagating activations
-            propActivs();
-            
-            double newError = calcError(i);
-            double errorDiff = prevError - newError;
-            prevError = newError;
-            
-            // print out diagnostic information every printOutIteration iterations
-            if (iter % printOutIteration == 0) 
-            {
-               double endTime = System.currentTimeMillis();
-               double timeElapsed = endTime - startTime;
-
-               System.out.print("Iteration: " + iter);
-               System.out.print(" Time Elapsed since start (min): " + timeElapsed / 60000.);
-               System.out.print(" New Error: " + prevError);
-               System.out.print(" Change in Error: " + errorDiff);
-               System.out.print(" Lambda: " + lambda);
-               System.out.print(" Case: " + i);
-               System.out.println(" Output: " + arrToString(activs[activs.length - 1]) 
-                  + " Target: " + arrToString(targets[i]));
-               
-               // create diagnostic bitmap if the input is a bitmap
-               if (fileType.equals("bitmap"))
-               {
-                  for (int testCase = 0; testCase < inputs.length; testCase++)
-                  {
-                     //createBitmap(iter, testCase);
-                  }
-               }
-            } // if (iter % printOutIteration == 0)
-            
-            iter++;
-            
-         } //for (int i = 0; i < inputs.length; i++)
-         
-         //calculates the maximum error across all test cases
-         double maxError = 0.0;
+         float[] leftActivs = fs.activs[layer - 1];
+         float[] layerWeights = floatWeights[layer - 1];
+         int numLeft = numActivs[layer - 1];
          
-         for (int i = 0; i < inputs.length; i++)
+         for (int right = 0; right < numActivs[layer]; right++) 
          {
-            propInputs(inputs[i]);
-            propActivs();
-            
-            double error = calcError(i);
-            
-            if (error > maxError) 
+            if (layer == 1 && nonzeros != null)
+            {
+               fs.thetas[layer][right] = Kernels.KERNELS.sparseDot(leftActivs, nonzeros, layerWeights, right * numLeft);
+            }
+            else
             {
-               maxError = error;
+               fs.thetas[layer][right] = Kernels.KERNELS.dot(leftActivs, 0, layerWeights, right * numLeft, numLeft);
             }
          }
          
-         end = end(iter, maxError);
-         
-      } // while (!end) 
-
-      // after termination, writes the output log file 
+         activations[layer].activate(fs.thetas[layer], fs.activs[layer], 0, numActivs[layer] - 1);
+      } // for (int layer = 1; layer < numActivs.length; layer++) 
+   } // private void propActivsFloat(int testCase)
+   
+   /**
+    * Updates the float weights by back propagating one test case in single precision, 
+    * exactly as backProp and backPropLayer do in double 
+    * 
+    * @param testCase the index of the test case that propActivsFloat has just propagated
+    */
+   private void backPropFloat(int testCase)
+   {
+      FloatWorkspace fs = floatSpace;
+      int outputLayer = numActivs.length - 1;
+      float floatLambda = (float)lambda;
       
-      System.out.println("Termination Reached. Writing output file now.");
+      for (int i = 0; i < numActivs[outputLayer]; i++)
+      {
+         fs.psis[outputLayer][i] = fs.targets[i] - fs.activs[outputLayer][i]; // littleOmegai
+      }
       
-      logFile.write("Iterations: " + iter + "\n\n");
+      activations[outputLayer].multiplyByDerivative(fs.activs[outputLayer], fs.psis[outputLayer], 
+            0, numActivs[outputLayer] - 1);
       
-      // writes the target and calculated values and errors for each test case
-      for (int testCase = 0; testCase < targets.length; testCase++) 
+      for (int layer = outputLayer - 1; layer >= 0; layer--) 
       {
-         logFile.write("Case " + testCase + ": Target / Calculated \n");
-         propInputs(inputs[testCase]);
-         propActivs();
+         if (layer < outputLayer - 1)
+         {
+            activations[layer + 1].multiplyByDerivative(fs.activs[layer + 1], fs.psis[layer + 1], 
+                  0, numActivs[layer + 1] - 1);
+         }
          
-         for (int output = 0; output < targets[0].length; output++)
+         int numK = numActivs[layer];
+         float[] psis = fs.psis[layer + 1];
+         float[] omegas = fs.psis[layer];
+         float[] layerWeights = floatWeights[layer];
+         boolean hidden = layer > 0;
+         
+         for (int k = 0; k < numK; k++)
          {
-            logFile.write(targets[testCase][output] + " ");
-            logFile.write(activs[activs.length - 1][output] + "\n");
+            fs.scratch[k] = floatLambda * fs.activs[layer][k];
+         }
+         
+         if (hidden)
+         {
+            Arrays.fill(omegas, 0, numK, 0.0f);
          }
          
-         logFile.write("Case " + testCase + " total error: " + calcError(testCase) + "\n\n");
+         int[] nonzeros = hidden || nonzeroRuns == null ? null : nonzeroRuns[testCase];
          
-      } // for (int testCase = 0; testCase < targets.length; testCase++) 
-      
-      //logFile.write("Final Weights: \n" + arrToString(weights));
-      
-   } // public void converge() throws IOException
-
+         for (int j = 0; j < numActivs[layer + 1]; j++)
+         {
+            if (hidden)
+            {
+               Kernels.KERNELS.axpy(psis[j], layerWeights, j * numK, omegas, 0, numK);
+            }
+            
+            if (nonzeros != null) // the weights leaving a zero input would not change
+            {
+               Kernels.KERNELS.sparseAxpy(psis[j], fs.scratch, nonzeros, layerWeights, j * numK);
+            }
+            else
+            {
+               Kernels.KERNELS.axpy(psis[j], fs.scratch, 0, layerWeights, j * numK, numK);
+            }
+         }
+      } // for (int layer = outputLayer - 1; layer >= 0; layer--) 
+   } // private void backPropFloat(int testCase)
+   
    /**
-    * Sets the first layer of activations (input layer) to given array of inputs
+    * Determines if the work on one layer of weights is worth splitting across the 
+    * worker threads. Only single-case training splits layers (the mini-batch and 
+    * hogwild modes already keep every thread busy), and only layers with at least 
+    * SPLIT_THRESHOLD weights, since handing work to other threads costs a few 
+    * microseconds that small layers like those of a.txt would never earn back. 
     * 
-    * @param inputs the array to set as inputs
+    * @param layer the index of the layer of weights
+    * @return true if the rows of the layer should be split across the threads
     */
-   private void propInputs(double[] inputs) 
+   private boolean splitLayer(int layer)
    {
-      for (int i = 0; i < inputs.length; i++) 
-      {
-         activs[0][i] = inputs[i];
-      }
+      return splitLayers && weights[layer].length >= SPLIT_THRESHOLD;
    }
    
    /**
-    * Propagates all the activations within the neural net: Computes each
-    * activation by summing the product of each activation in the preceding layer
-    * with the corresponding weight, then compressing the value with a wrapper
-    * function. Also stores an array of thetas; for every activation, there is a 
-    * corresponding theta that is the activation value pre-wrapper. 
+    * Cuts a number of rows into one contiguous range per thread and runs the given 
+    * range on each, returning once they are all done. The calling thread takes the 
+    * first range itself instead of waiting idle. 
     * 
-    * How the indices and loops work: loop through each layer of activations
-    * ("layer") within each layer, loop through every activation in that layer
-    * ("right", ie. the destination) for each of these activations, compute its
-    * value by looping through each activation in the previous layer ("left", ie
-    * source) and multiplying with the corresponding weight [layer - 1][left][right]
+    * @param rows the number of rows to split
+    * @param range the work to do on each range of rows
     */
-   private void propActivs() 
+   private void splitRows(int rows, RowRange range)
    {
-      for (int layer = 1; layer < numActivs.length; layer++) 
+      int parts = Math.min(threads, rows);
+      ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[parts];
+      
+      for (int part = 1; part < parts; part++)
       {
-         for (int right = 0; right < numActivs[layer]; right++) 
+         int first = rows * part / parts;
+         int last = rows * (part + 1) / parts - 1;
+         
+         tasks[part] = pool.submit(() -> range.run(first, last));
+      }
+      
+      range.run(0, rows / parts - 1);
+      
+      for (int part = 1; part < parts; part++)
+      {
+         tasks[part].join();
+      }
+   } // private void splitRows(int rows, RowRange range)
+   
+   /**
+    * Trains one epoch in "hogwild" mode: the cases are cut into one contiguous shard 
+    * per thread, and every thread runs stochastic gradient descent on its shard with 
+    * its own activations and thetas while all of them update the one shared set of 
+    * weights without any locking. Updates from different threads can occasionally 
+    * overwrite each other, but with mostly-zero (thresholded bitmap) inputs two 
+    * threads rarely touch the same weight at once, so almost no work is lost and 
+    * the threads never wait on each other. Unlike the mini-batch threads, the result 
+    * is not repeatable from run to run. 
+    */
+   private void trainHogwild()
+   {
+      ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[threads];
+      
+      for (int t = 0; t < threads; t++)
+      {
+         Workspace ws = workspaces[t];
+         int first = dataset.size() * t / threads;
+         int last = dataset.size() * (t + 1) / threads - 1;
+         
+         tasks[t] = pool.submit(() -> 
          {
-            double theta = 0.0;
-
-            for (int left = 0; left < numActivs[layer - 1]; left++) 
+            for (int i = first; i <= last; i++)
             {
-               theta += activs[layer - 1][left] * weights[layer - 1][left][right];
+               propInputs(ws, i);
+               propActivs(ws);
+               caseErrors[i] = calcError(ws, i);
+               backProp(ws, i);
             }
-            
-            thetas[layer][right] = theta;
-            activs[layer][right] = wrapper(theta);
-            
-         } // for (int right = 0; right < numActivs[layer]; right++)
-      } // for (int layer = 1; layer < numActivs.length; layer++) 
-   } // private void propActivs() 
-   
+         });
+      } // for (int t = 0; t < threads; t++)
+      
+      for (ForkJoinTask<?> task : tasks)
+      {
+         task.join();
+      }
+   } // private void trainHogwild()
+
    /**
-    * Calculates the error of the current network configuration 
-    * with regards to a given training set 
+    * Trains on one mini-batch of consecutive test cases, then changes the weights 
+    * once by lambda times the gradient summed across the batch. The gradients are 
+    * summed rather than averaged so that lambda has the same per-case meaning as in 
+    * stochastic gradient descent. 
     * 
-    * @param testCase the index of the target value array to compare against 
-    * @return the error, as defined as half the sum of the squares of the 
-    *         differences between each real and calculated value
+    * With more than one thread, the batch is cut into one contiguous shard per thread 
+    * and the shards are back propagated concurrently, each into its own Workspace. 
+    * The shard boundaries depend only on the batch and the number of threads, and the 
+    * per-thread gradients are always summed in thread order, so the result does not 
+    * depend on how the threads happen to be scheduled. 
+    * 
+    * @param first the index of the first test case in the batch
+    * @param last the index of the last test case in the batch (inclusive)
     */
-   private double calcError(int testCase) 
+   private void trainBatch(int first, int last)
    {
-      double error = 0.0;
+      int cases = last - first + 1;
+      int shards = Math.min(threads, cases);
       
-      double[] targetOutputs = targets[testCase];
-      double[] outputActivs = activs[activs.length - 1];
+      optimizer.step(); // one step per batch, before any slice of the weights changes
       
-      for (int outputIndex = 0; outputIndex < numActivs[numActivs.length - 1]; outputIndex++)
+      if (shards == 1)
       {
-         error += square(targetOutputs[outputIndex] - outputActivs[outputIndex]);
+         accumulateGradients(workspaces[0], first, last);
+         applyGradients(1, 0, 1);
       }
-      return 0.5 * error;
-   } //private double calcError(int testCase) 
+      else
+      {
+         ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[shards];
+         
+         for (int shard = 0; shard < shards; shard++)
+         {
+            Workspace ws = workspaces[shard];
+            int shardFirst = first + cases * shard / shards;
+            int shardLast = first + cases * (shard + 1) / shards - 1;
+            
+            tasks[shard] = pool.submit(() -> accumulateGradients(ws, shardFirst, shardLast));
+         }
+         
+         for (ForkJoinTask<?> task : tasks)
+         {
+            task.join();
+         }
+         
+         // every thread reduces its own slice of the weights, so the reduction is parallel too
+         for (int part = 0; part < shards; part++)
+         {
+            int slice = part;
+            tasks[part] = pool.submit(() -> applyGradients(shards, slice, shards));
+         }
+         
+         for (ForkJoinTask<?> task : tasks)
+         {
+            task.join();
+         }
+      } // else clause where shards > 1
+   } // private void trainBatch(int first, int last)
    
    /**
-    * Updates the weights using stochastic gradient descent and back propagation
-    * Can be used with any number of activations in the input, hidden, and output layers
-    * Can be used with any number of hidden layers
+    * Back propagates a block of consecutive test cases and stores the gradient of every 
+    * weight, summed across the block, in the given Workspace. Does not change the weights. 
     * 
-    * @param testCase the index in the "inputs" array that holds the array of target values Ti
-    *            that the back prop is based on 
+    * The inputs of every case are stacked as the rows of one matrix and propagated 
+    * together, so each layer is a single matrix-matrix multiply instead of one 
+    * matrix-vector multiply per case. The psis are computed the same way as in backProp. 
+    * 
+    * @param ws the Workspace that holds the activations, psis and gradients of the block
+    * @param first the index of the first test case in the block
+    * @param last the index of the last test case in the block (inclusive)
     */
-   private void backProp(int testCase) 
+   private void accumulateGradients(Workspace ws, int first, int last)
    {
-      double[][] bigOmega = new double[activs.length][activs[0].length]; // indices are [layer][index]
+      int cases = last - first + 1;
+      int outputLayer = numActivs.length - 1;
       
-      // update last layer of weights first
-      int jlayer = numActivs.length - 2; // -2 represents the second last layer
+      // the inputs of each case become one row of the input layer matrix
+      for (int c = 0; c < cases; c++)
+      {
+         dataset.readInputs(first + c, ws.activs[0], c * numActivs[0]);
+         dataset.readTargets(first + c, ws.targets, c * numActivs[outputLayer]);
+      }
+      
+      // thetas = (activations of the previous layer) * transpose(weights of the previous layer), for every case at once
+      for (int layer = 1; layer <= outputLayer; layer++)
+      {
+         MatrixMath.multiplyTransposeB(ws.activs[layer - 1], weights[layer - 1], ws.thetas[layer], 
+               cases, numActivs[layer], numActivs[layer - 1]);
+         
+         activations[layer].activate(ws.thetas[layer], ws.activs[layer], 0, cases * numActivs[layer] - 1);
+      }
       
-      for (int j = 0; j < numActivs[jlayer]; j++)
+      // psi of every output activation of every case, and the error of every case
+      int numOutputs = numActivs[outputLayer];
+      
+      for (int c = 0; c < cases; c++)
       {
-         double bigOmegaj = 0.0; 
+         double error = 0.0;
          
-         for (int i = 0; i < numActivs[jlayer + 1]; i++)
+         for (int i = 0; i < numOutputs; i++)
          {
-            double thetai = thetas[thetas.length - 1][i];
-            double Fi = wrapper(thetai);
-            double littleOmegai = (targets[testCase][i]) - Fi;
-            double psii = littleOmegai * wrapperPrime(thetai);
-            double hj = activs[activs.length - 2][j];
-            
-            bigOmegaj += psii * weights[jlayer][j][i];
+            int n = c * numOutputs + i;
+            double littleOmegai = ws.targets[n] - ws.activs[outputLayer][n];
             
-            weights[jlayer][j][i] += lambda * hj * psii;
+            ws.psis[outputLayer][n] = littleOmegai;
+            error += square(littleOmegai);
          }
          
-         bigOmega[jlayer][j] = bigOmegaj;
-         
-      } // for (int j = 0; j < numActivs[jlayer]; j++)
+         caseErrors[first + c] = 0.5 * error; // error before this batch's update
+      }
       
-      int layers = weights.length;
+      activations[outputLayer].multiplyByDerivative(ws.activs[outputLayer], ws.psis[outputLayer], 
+            0, cases * numOutputs - 1);
       
-      // calculate and update weights for all the other layers
-      for (int layer = layers - 2; layer >= 0; layer--) 
+      // gradient of each layer of weights, then the psis of the layer to its left
+      for (int layer = outputLayer - 1; layer >= 0; layer--)
+      {
+         MatrixMath.multiplyTransposeA(ws.psis[layer + 1], ws.activs[layer], ws.gradients[layer], 
+               cases, numActivs[layer + 1], numActivs[layer]);
+         
+         if (layer > 0) // the input layer has no psis
+         {
+            // bigOmega = psis * weights, stored in place of the psis until multiplied by F'(theta)
+            MatrixMath.multiply(ws.psis[layer + 1], weights[layer], ws.psis[layer], 
+                  cases, numActivs[layer + 1], numActivs[layer]);
+            
+            activations[layer].multiplyByDerivative(ws.activs[layer], ws.psis[layer], 
+                  0, cases * numActivs[layer] - 1);
+         }
+      } // for (int layer = outputLayer - 1; layer >= 0; layer--)
+   } // private void accumulateGradients(Workspace ws, int first, int last)
+   
+   /**
+    * Changes one slice of every layer of weights by the optimizer's step for the sum 
+    * of the gradients held in the first few Workspaces (lambda times the sum for sgd). The gradients are always added 
+    * in Workspace order, which keeps multi-threaded runs deterministic. 
+    * 
+    * @param shards the number of Workspaces whose gradients are summed
+    * @param part the index of the slice of each layer to change
+    * @param parts the number of slices each layer is cut into
+    */
+   private void applyGradients(int shards, int part, int parts)
+   {
+      for (int layer = 0; layer < weights.length; layer++)
       {
-         for (int k = 0; k < numActivs[layer]; k++)
+         double[] layerWeights = weights[layer];
+         int from = (int)((long)layerWeights.length * part / parts);
+         int to = (int)((long)layerWeights.length * (part + 1) / parts);
+         
+         for (int w = from; w < to; w++)
          {
-            double bigOmegak = 0.0;
+            double gradient = 0.0;
             
-            for (int j = 0; j < numActivs[layer + 1]; j++)
+            for (int shard = 0; shard < shards; shard++)
             {
-               double bigPsij = bigOmega[layer + 1][j] * wrapperPrime(thetas[layer + 1][j]);
-               double ak = activs[layer][k];
-
-               bigOmegak += bigPsij * weights[layer][k][j];
-               weights[layer][k][j] += lambda * ak * bigPsij;
+               gradient += workspaces[shard].gradients[layer][w];
             }
             
-            bigOmega[layer][k] = bigOmegak;
-            
-         } // for (int k = 0; k < numActivs[layer]; k++)
-      } // for (int layer = layers - 2; layer >= 0; layer--)
-   } // private void backProp(int testCase) 
+            layerWeights[w] += optimizer.delta(layer, w, gradient, lambda);
+         }
+      } // for (int layer = 0; layer < weights.length; layer++)
+   } // private void applyGradients(int shards, int part, int parts)
+   
+   /**
+    * Prints diagnostic information if a print out iteration falls inside a span of 
+    * cases that were just trained together (a mini-batch or a hogwild epoch). 
+    * The last case of the span is re-propagated with the updated weights and reported. 
+    * 
+    * @param iter the iteration of the first case in the span
+    * @param first the index of the first test case in the span
+    * @param last the index of the last test case in the span (inclusive)
+    * @param prevError the error reported last time
+    * @return the error of the last case if it was reported, otherwise prevError
+    */
+   private double printSpanDiagnostics(int iter, int first, int last, double prevError)
+   {
+      double error = prevError;
+      int printIter = (iter + printOutIteration - 1) / printOutIteration * printOutIteration;
+      
+      if (printIter <= iter + last - first)
+      {
+         propagate(last);
+         
+         error = calcError(workspace, last);
+         printDiagnostics(printIter, last, error, prevError - error);
+      }
+      
+      return error;
+   } // private double printSpanDiagnostics(int iter, int first, int last, double prevError)
+   
+   /**
+    * Prints diagnostic information about the most recently trained test case to the console
+    * 
+    * @param iter the iteration being reported
+    * @param testCase the test case whose outputs are currently in the activations array
+    * @param newError the error of that test case with the updated weights
+    * @param errorDiff the change in error since the previous report
+    */
+   private void printDiagnostics(int iter, int testCase, double newError, double errorDiff)
+   {
+      double endTime = System.currentTimeMillis();
+      double timeElapsed = endTime - startTime;
 
+      System.out.print("Iteration: " + iter);
+      System.out.print(" Time Elapsed since start (min): " + timeElapsed / 60000.);
+      System.out.print(" New Error: " + newError);
+      System.out.print(" Change in Error: " + errorDiff);
+      System.out.print(" Lambda: " + lambda);
+      System.out.print(" Case: " + testCase);
+      System.out.println(" Output: " + arrToString(activs[activs.length - 1]) 
+         + " Target: " + arrToString(workspace.targets));
+      
+      // create diagnostic bitmap if the input is a bitmap
+      if (fileType.equals("bitmap"))
+      {
+         for (int i = 0; i < dataset.size(); i++)
+         {
+            //createBitmap(iter, i);
+         }
+      }
+   } // private void printDiagnostics(int iter, int testCase, double newError, double errorDiff)
+   
    /**
     * Determines if the given conditions should cause termination.
     * If so, writes the reason for termination into the output log file
@@ -411,49 +1992,52 @@ public class Perceptron11
    } // private boolean end(int iter, double currentError) throws IOException
 
    /**
-    * A wrapper function that compresses a given value to a desired range
-    * Wraps around every activation 
-    * 
-    * currently: uses a sigmoid, which goes from [R] --> (0,1)
-    * can be changed to other functions, such as the hyperbolic tangent function
+    * Gets the activation values in the output layer
     * 
-    * @param n the given value to compress
-    * @return the compressed value
+    * @return a 1D array of outputs 
     */
-   public double wrapper(double n) 
+   public double[] outputs()
    {
-      return 1.0 / (1.0 + Math.exp(-n));
+      return outputs(new double[numActivs[numActivs.length - 1]]);
    }
    
    /**
-    * The derivative of the wrapper function
+    * Copies the activation values in the output layer into a given array, 
+    * so that a caller that reads the outputs repeatedly can reuse one array
     * 
-    * currently: the derivative of the sigmoid function
+    * @param outputs the array to fill; must hold at least as many values as the output layer
+    * @return the given array
+    */
+   public double[] outputs(double[] outputs)
+   {
+      for (int i = 0; i < numActivs[numActivs.length - 1]; i++)
+      {
+         outputs[i] = activs[activs.length - 1][i];
+      }
+      
+      return outputs;
+   }
+   
+   /**
+    * Creates a Model from the current weights, which can score cases from any number 
+    * of threads at once; later training does not change it 
     * 
-    * @param n the input for the derivative
-    * @return output of the derivative
+    * @return a Model with a copy of this network's topology, weights and wrapper functions
     */
-   private double wrapperPrime(double n)
+   public Model model()
    {
-      double wrapped = wrapper(n);
-      return wrapped * (1.0 - wrapped);
+      return new Model(numActivs, weights, activations);
    }
    
    /**
-    * Gets the activation values in the output layer
+    * Creates a SparseNetwork from the current weights, keeping only the ones that are 
+    * not zero; worthwhile once the network has been pruned 
     * 
-    * @return a 1D array of outputs 
+    * @return a SparseNetwork with this network's topology, nonzero weights and wrapper functions
     */
-   public double[] outputs()
+   public SparseNetwork sparseNetwork()
    {
-      double[] outputs = new double[numActivs[numActivs.length - 1]];
-      
-      for (int i = 0; i < outputs.length; i++)
-      {
-         outputs[i] = activs[activs.length - 1][i];
-      }
-      
-      return outputs;
+      return new SparseNetwork(numActivs, weights, activations);
    }
    
    /**
@@ -502,7 +2086,8 @@ public class Perceptron11
    } // public void createBitmap(int iteration, int testCase)
 
    /**
-    * Creates a string representation of a 3D array 
+    * Creates a string representation of a packed weight array, 
+    * labelling each weight with its [layer][left][right] indices
     * (overloads the other arrToString method)
     * 
     * @precondition the arr must be the same size as the weights array 
@@ -510,9 +2095,9 @@ public class Perceptron11
     * @param arr the given array from which the method creates the string
     * @return the string representation of the array 
     */
-   public String arrToString(double [][][] arr) 
+   public String arrToString(double[][] arr) 
    {
-      String s = "";
+      StringBuilder s = new StringBuilder();
 
       for (int layer = 0; layer < numActivs.length - 1; layer++) 
       {
@@ -520,11 +2105,12 @@ public class Perceptron11
          {
             for (int right = 0; right < numActivs[layer + 1]; right++) 
             {
-               s += "w[" + layer + "][" + left + "][" + right + "] = " + arr[layer][left][right] + "\n";
+               s.append("w[").append(layer).append("][").append(left).append("][").append(right).append("] = ")
+                     .append(arr[layer][right * numActivs[layer] + left]).append("\n");
             }
          }
       }
-      return s;
+      return s.toString();
    }
    
    /**
@@ -536,17 +2122,39 @@ public class Perceptron11
     */
    public String arrToString(double[] arr) 
    {
-      String s =  "[";
+      StringBuilder s = new StringBuilder("[");
       
       for (int i = 0; i < arr.length - 1; i++) 
       {
-         s += arr[i] + ", ";
+         s.append(arr[i]).append(", ");
       }
-      s += arr[arr.length - 1] + "]";
+      s.append(arr[arr.length - 1]).append("]");
       
-      return s;
+      return s.toString();
    }
 
+   /**
+    * Makes a float copy of a 2D array of doubles, rounding each value to the nearest float
+    * 
+    * @param arr the array to copy
+    * @return the float copy
+    */
+   private float[][] toFloat(double[][] arr)
+   {
+      float[][] copy = new float[arr.length][];
+      
+      for (int n = 0; n < arr.length; n++)
+      {
+         copy[n] = new float[arr[n].length];
+         
+         for (int m = 0; m < arr[n].length; m++)
+         {
+            copy[n][m] = (float)arr[n][m];
+         }
+      }
+      return copy;
+   } // private float[][] toFloat(double[][] arr)
+   
    /**
     * Squares a given number by multiplying it with itself
     * Reduces errors associated with floating point arithmetic that may occur when using
@@ -560,4 +2168,18 @@ public class Perceptron11
       return n * n;
    }
    
+   /**
+    * A piece of work on a contiguous range of rows (neurons) of one layer
+    */
+   private interface RowRange
+   {
+      /**
+       * Does the work on the given range of rows
+       * 
+       * @param first the first row
+       * @param last the last row (inclusive)
+       */
+      void run(int first, int last);
+   }
+   
 } // public class Perceptron11 
\ No newline at end of file
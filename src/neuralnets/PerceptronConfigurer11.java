@@ -1,21 +1,26 @@
 package neuralnets;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.Random;
 import java.io.File; 
 import java.io.FileNotFoundException; 
 import java.io.IOException;
+import java.nio.file.Files;
 
 /**
  * Given a file, will parse it to extract configuration for a Perceptron object
  * See README for file specifications
  * 
- * NOTE: Scanner.nextDouble() wasn't recognizing 0.0 for me, so I had to resort to 
- * reading 0 with Scanner.nextInt() and then casting to a double
+ * The file is read with a ConfigScanner, which parses numbers straight from the file's 
+ * bytes; Manual inputs, targets and weights can be integers or real numbers, and each 
+ * case's inputs and targets are read straight into their arrays. 
  * 
  * Methods included:
  * PerceptronConfigurer11(File file) throws RuntimeException, FileNotFoundException, IOException
+ * void checkFloatPrecision()
+ * double[] loadBitmap(DibDump1 dib, String image, int index, boolean handProcessing) throws IOException
  * int[][] handProcess(int[][] pels)
  * void printNumPic(double[] arr)
- * double[][][] propWeightsRand(double[][][] w8s, double min, double max) 
+ * double[][] propWeightsRand(double[][] w8s, double min, double max) 
  * double random(double min, double max)
  * double scale(double n)
  * double reverseScale(double n)
@@ -28,17 +33,51 @@ public class PerceptronConfigurer11
 {
    public double[][] inputs; // indices: training case, i
    public double[][] targets; // indices: training case, k
+   public Dataset dataset; // the training cases: inputs and targets, or the cases of a dataset file
+   public String saveDatasetFilename; // where the training cases are written as a binary dataset file; null for nowhere
    public int[] numActivs; // numActivs[n] = number of activations in layer n (layer 0 = inputs)
-   public double[][][] weights; // indices: layer, left index, right index
+   public double[][] weights; // indices: layer, right * numActivs[layer] + left
    public int maxIterations;
    public int printOutIteration; // if this var is 10, prints out information every 10 iterations (0, 10, 20, etc.)
    public double errorThreshold;
    public double lambda;
-   public String fileType; // current options: "bitmap" or "Manual" 
+   public int batchSize; // number of cases whose gradients are summed before the weights change
+   public int threads; // number of worker threads that share each mini-batch, hogwild epoch, or wide layer
+   public boolean hogwild; // true if the threads update the shared weights without locks or batches
+   public boolean fusedStep; // true if errors come from the training's own forward passes instead of re-propagating
+   public boolean recheckError; // true if a fused step's max error is confirmed by re-propagating before termination
+   public boolean singlePrecision; // true if training and propagation store and compute in float instead of double
+   public int quantizeBits; // 8 or 16 to compare the trained network with its quantized version, otherwise 0
+   public double pruneThreshold; // weights smaller than this are pruned after training (0 for none)
+   public int pruneTopK; // only the pruneTopK largest weights entering each neuron are kept after training (0 for all)
+   public int pruneFineTune; // the number of epochs the pruned network is trained for, with pruned weights held at zero
+   public String modelFilename; // where the trained network is saved (see ModelFile); null for the default name
+   public String checkpointFilename; // where training checkpoints are written (see Checkpoint); null for none
+   public int checkpointEpochs; // a checkpoint is written every checkpointEpochs epochs (0 for never)
+   public double checkpointMinutes; // a checkpoint is written once this many minutes pass since the last (0 for never)
+   public boolean resume; // true if training continues from the checkpoint file when it exists
+   public int checkEvery; // convergence is only checked every checkEvery epochs
+   public int checkSample; // the number of cases whose errors are checked before all of them are (0 for all)
+   public boolean adaptiveLambda; // true if lambda changes after every epoch, with weight roll back
+   public double lambdaGrowth; // lambda is multiplied by this after an epoch that is kept
+   public double lambdaShrink; // lambda is multiplied by this after an epoch that is rolled back
+   public double lambdaTolerance; // an epoch is only rolled back if it raises the total error by more than this fraction
+   public String optimizerName; // the update rule (see Optimizer): sgd, momentum, rmsprop or adam
+   public double[] optimizerFactors; // the factors that follow the optimizer's name (mu, rho, or beta1 and beta2)
+   public boolean sparseInputs; // true if the first layer skips the zero inputs of mostly-zero cases
+   
+   private boolean fastSigmoid; // true if sigmoid layers use the FastSigmoid table instead of Math.exp
+   private boolean precisionGiven; // true if the file has a precision line
+   private ModelFile warmStart; // the model that "weights: File" loaded; its activations and precision must match
+   public Activation[] activations; // indices: layer; the wrapper function of each layer (layer 0 = inputs has none)
+   public String fileType; // current options: "bitmap", "Manual" or "dataset" 
    public boolean squareImage; // true if the image is square, false otherwise
    
    private static double numBits; // number of bits for each pel
    
+   private Random rng; // source of random weights; seeded if the file gives a seed
+   private BitmapCache bitmapCache; // holds bitmaps already decoded, processed and scaled; null (the default) to always process them
+   
    /**
     * Creates an instance of the PerceptronConfigurer11 class given a file 
     * Reads through the file, utilizing the headings, and instantiates 
@@ -51,10 +90,18 @@ public class PerceptronConfigurer11
     */
    public PerceptronConfigurer11(File file) throws RuntimeException, FileNotFoundException, IOException
    {
-      Scanner scan = new Scanner(file);
+      ConfigScanner scan = new ConfigScanner(file);
       
       int numTestCases = 0;
       
+      batchSize = 1; // stochastic gradient descent unless the file asks for mini-batches
+      threads = 1;
+      checkEvery = 1;
+      optimizerName = "sgd";
+      optimizerFactors = new double[0];
+      sparseInputs = true;
+      rng = new Random();
+      
       while (scan.hasNext())
       {
          String line = scan.nextLine();
@@ -166,24 +213,8 @@ public class PerceptronConfigurer11
                         String image = scan.nextLine();
                         System.out.println(image);
                         
-                        String[] arguments = {image};
-                        dib.main(arguments);
-                  
-                        int[][] dibInputs = dib.imageArray;
-                        
-                        System.out.println();
-                        
-                        if (handProcessing)
-                        {
-                           dibInputs = this.handProcess(dibInputs);
-                        }
-                        
-                        dib.writeOut(dibInputs, "DEBUG" + images + ".bmp");
-                        
-                        int rows = dibInputs.length;
-                        int cols = dibInputs[0].length;
-                        
-                        int numPels = rows * cols;
+                        double[] pels = loadBitmap(dib, image, images, handProcessing);
+                        int numPels = pels.length;
                         
 //                        System.out.println("DEBUG testcases: " + numTestCases);
                         
@@ -207,32 +238,16 @@ public class PerceptronConfigurer11
                            numActivs[numActivs.length - 1] = 1;
                         }
                         
-                        int count = 0;
-                        
-                        // scale the extracted pel values and set them as the inputs and/or targets
-                        for (int i = 0; i < rows; i++) 
+                        // set the scaled pel values as the inputs and/or targets
+                        for (int count = 0; count < numPels; count++) 
                         {
-                           for (int j = 0; j < cols; j++) 
+                           if (compression) 
                            {
-                              double pel = (double)(dibInputs[i][j]);
-                              
-                              //System.out.println("DEBUG pel: " + pel);
-                              
-                              double num = scale(pel);
-                              
-                              //System.out.println("DEBUG scaled: " + num);
-                              
-                              if (compression) 
-                              {
-                                 targets[images][count] = num;
-                              }
-                              
-                              inputs[images][count] = num;
-                              
-                              count++;
-                              
-                           } // for (int j = 0; j < cols; j++)
-                        } // for (int i = 0; i < rows; i++) 
+                              targets[images][count] = pels[count];
+                           }
+                           
+                           inputs[images][count] = pels[count];
+                        }
 
                         //this.printNumPic(inputs[0]);
                         
@@ -265,10 +280,7 @@ public class PerceptronConfigurer11
                         // propagates the inputs array
                         for (int testCase = 0; testCase < numTestCases; testCase++)
                         {
-                           for (int input = 0; input < numActivs[0]; input++)
-                           {
-                              inputs[testCase][input] = (double)(scan.nextInt());
-                           }
+                           scan.nextDoubles(inputs[testCase], 0, numInputs);
                         }
                         
                         int numOutputs = scan.nextInt();
@@ -278,11 +290,7 @@ public class PerceptronConfigurer11
                         // propagates the targets array 
                         for (int testCase = 0; testCase < numTestCases; testCase++)
                         {
-                           for (int output = 0; output < numActivs[numActivs.length - 1]; output++)
-                           {
-                              double target = (double)(scan.nextInt());
-                              targets[testCase][output] = target;
-                           }
+                           scan.nextDoubles(targets[testCase], 0, numOutputs);
                         }
                      } // else clause where numTestCases > 0
                   } // else if (bitmap.equals("no")
@@ -291,17 +299,51 @@ public class PerceptronConfigurer11
                      throw new RuntimeException("Invalid bitmap condition: \"" + bitmap + "\"");
                   }
                }
+               else if (label.equals("bitmapCache"))
+               {
+                  if (inputs != null)
+                  {
+                     throw new RuntimeException("bitmapCache must precede bitmap in file");
+                  }
+                  
+                  String cache = line.substring(colonIndex + 2).trim();
+                  bitmapCache = cache.equals("no") ? null : new BitmapCache(new File(cache));
+               }
+               else if (label.equals("dataset")) // the cases are read from a binary dataset file as training needs them
+               {
+                  if (numActivs == null)
+                  {
+                     throw new RuntimeException("numHiddenLayers must precede dataset in file");
+                  }
+                  
+                  String datasetName = line.substring(colonIndex + 2).trim();
+                  
+                  fileType = "dataset";
+                  dataset = MappedDataset.open(new File(datasetName));
+                  numActivs[0] = dataset.numInputs();
+                  numActivs[numActivs.length - 1] = dataset.numOutputs();
+                  
+                  if (numTestCases > 0 && numTestCases != dataset.size())
+                  {
+                     throw new RuntimeException("numTestCases is " + numTestCases + " but \"" + datasetName 
+                           + "\" holds " + dataset.size() + " cases");
+                  }
+               } // else if (label.equals("dataset"))
+               else if (label.equals("saveDataset"))
+               {
+                  saveDatasetFilename = line.substring(colonIndex + 2).trim();
+               }
                else if (label.equals("weights")) // gets weights
                {
                   if (numActivs == null)
                   {
                      throw new RuntimeException("numHiddenLayers must precede weights in file");
                   }
-                  else if (inputs == null)
+                  else if (inputs == null && dataset == null)
                   {
                      throw new RuntimeException("inputs must precede weights in file");
                   }
-                  else if (targets == null)
+                  else if (targets == null && dataset == null)
                   {
                      throw new RuntimeException("outputs must precede weights in file");
                   }
@@ -309,22 +351,38 @@ public class PerceptronConfigurer11
                   {
                      String weightPropStyle = line.substring(colonIndex + 2);
                      
-                     // determine the maximum number of activations in a layer (ie. how many are in the longest layer)
-                     int maxActivs = 0;
-                     for (int i = 0; i < numActivs.length; i++)
+                     // each layer of weights is packed into one array sized exactly numLeft * numRight, 
+                     // with the weights entering each right neuron next to each other
+                     weights = new double[numActivs.length - 1][];
+                     int numWeights = 0;
+                     
+                     for (int layer = 0; layer < weights.length; layer++)
                      {
-                        maxActivs = Math.max(maxActivs, numActivs[i]);
+                        weights[layer] = new double[numActivs[layer] * numActivs[layer + 1]];
+                        numWeights += weights[layer].length;
                      }
                      
-                     System.out.println("DEBUG maxActivs: " + maxActivs);
+                     System.out.println("DEBUG num weights: " + numWeights);
                      System.out.println("DEBUG num layers: " + (numActivs.length - 1));
                      
-                     weights = new double[numActivs.length - 1][maxActivs][maxActivs];
-                     
                      if (weightPropStyle.equals("Random")) // creates a set of random weights
                      {
                         weights = propWeightsRand(weights, scan.nextDouble(), scan.nextDouble());
                      }
+                     else if (weightPropStyle.equals("File")) // warm start from a saved binary model
+                     {
+                        String modelName = scan.next();
+                        ModelFile saved = ModelFile.load(new File(modelName));
+                        
+                        if (!Arrays.equals(saved.numActivs, numActivs))
+                        {
+                           throw new RuntimeException("The network in \"" + modelName + "\" has layers " 
+                                 + Arrays.toString(saved.numActivs) + ", not " + Arrays.toString(numActivs));
+                        }
+                        
+                        weights = saved.weights;
+                        warmStart = saved; // its activations and precision are checked once the whole file is read
+                     }
                      else if (weightPropStyle.equals("Manual")) // reads user entered weights
                      {
                         for (int layer = 0; layer < numActivs.length - 1; layer++)
@@ -333,7 +391,7 @@ public class PerceptronConfigurer11
                            {
                               for (int right = 0; right < numActivs[layer + 1]; right++)
                               {
-                                 weights[layer][left][right] = (double)scan.nextInt();
+                                 weights[layer][right * numActivs[layer] + left] = scan.nextDouble();
                               }
                            }
                         }
@@ -342,7 +400,7 @@ public class PerceptronConfigurer11
                      {
                         throw new RuntimeException("Invalid weight propagation style: \"" + weightPropStyle + "\"");
                      }
-                  } // else clause where numActivs != null, inputs != null, and targets != null
+                  } // else clause where numActivs, inputs and targets (or dataset) are known
                } //else if (label.equals("weights"))
                
                else if (label.equals("iterations"))
@@ -358,6 +416,260 @@ public class PerceptronConfigurer11
                {
                   lambda = Double.parseDouble(line.substring(colonIndex + 2));
                }
+               else if (label.equals("batchSize"))
+               {
+                  batchSize = Integer.parseInt(line.substring(colonIndex + 2));
+                  
+                  if (batchSize < 1)
+                  {
+                     throw new RuntimeException("Invalid batch size: \"" + batchSize + "\"");
+                  }
+               }
+               else if (label.equals("threads"))
+               {
+                  threads = Integer.parseInt(line.substring(colonIndex + 2));
+                  
+                  if (threads < 1)
+                  {
+                     throw new RuntimeException("Invalid number of threads: \"" + threads + "\"");
+                  }
+               }
+               else if (label.equals("hogwild"))
+               {
+                  String lockFree = line.substring(colonIndex + 2);
+                  
+                  if (lockFree.equals("yes"))
+                  {
+                     hogwild = true;
+                  }
+                  else if (!lockFree.equals("no"))
+                  {
+                     throw new RuntimeException("Invalid hogwild condition: \"" + lockFree + "\"");
+                  }
+               }
+               else if (label.equals("fusedStep"))
+               {
+                  String fused = line.substring(colonIndex + 2);
+                  
+                  if (fused.equals("yes") || fused.equals("recheck"))
+                  {
+                     fusedStep = true;
+                     recheckError = fused.equals("recheck");
+                  }
+                  else if (!fused.equals("no"))
+                  {
+                     throw new RuntimeException("Invalid fused step condition: \"" + fused + "\"");
+                  }
+               }
+               else if (label.equals("activations"))
+               {
+                  if (numActivs == null)
+                  {
+                     throw new RuntimeException("numHiddenLayers must precede activations in file");
+                  }
+                  
+                  String[] names = line.substring(colonIndex + 2).trim().split("\\s+");
+                  activations = new Activation[numActivs.length];
+                  
+                  // either one function for every layer, or one for each hidden layer and the output layer
+                  if (names.length != 1 && names.length != numActivs.length - 1)
+                  {
+                     throw new RuntimeException("activations must list 1 or " + (numActivs.length - 1) 
+                           + " functions, not " + names.length);
+                  }
+                  
+                  for (int layer = 1; layer < numActivs.length; layer++)
+                  {
+                     activations[layer] = Activation.fromName(names[names.length == 1 ? 0 : layer - 1]);
+                  }
+               } // else if (label.equals("activations"))
+               else if (label.equals("fastSigmoid"))
+               {
+                  String fast = line.substring(colonIndex + 2);
+                  
+                  if (fast.equals("yes"))
+                  {
+                     fastSigmoid = true; // applied to the sigmoid layers once the whole file is read
+                  }
+                  else if (!fast.equals("no"))
+                  {
+                     throw new RuntimeException("Invalid fast sigmoid condition: \"" + fast + "\"");
+                  }
+               }
+               else if (label.equals("precision"))
+               {
+                  String precision = line.substring(colonIndex + 2);
+                  
+                  precisionGiven = true;
+                  
+                  if (precision.equals("float"))
+                  {
+                     singlePrecision = true;
+                  }
+                  else if (!precision.equals("double"))
+                  {
+                     throw new RuntimeException("Invalid precision: \"" + precision + "\"");
+                  }
+               }
+               else if (label.equals("quantize"))
+               {
+                  String quantize = line.substring(colonIndex + 2);
+                  
+                  if (quantize.equals("int8"))
+                  {
+                     quantizeBits = 8;
+                  }
+                  else if (quantize.equals("int16"))
+                  {
+                     quantizeBits = 16;
+                  }
+                  else if (!quantize.equals("no"))
+                  {
+                     throw new RuntimeException("Invalid quantization: \"" + quantize + "\"");
+                  }
+               }
+               else if (label.equals("prune"))
+               {
+                  String[] prune = line.substring(colonIndex + 2).trim().split("\\s+");
+                  
+                  pruneThreshold = 0.0;
+                  pruneTopK = 0;
+                  
+                  if (prune[0].equals("below") && prune.length == 2)
+                  {
+                     pruneThreshold = Double.parseDouble(prune[1]);
+                     
+                     if (pruneThreshold <= 0.0)
+                     {
+                        throw new RuntimeException("Invalid pruning threshold: " + pruneThreshold);
+                     }
+                  }
+                  else if (prune[0].equals("top") && prune.length == 2)
+                  {
+                     pruneTopK = Integer.parseInt(prune[1]);
+                     
+                     if (pruneTopK < 1)
+                     {
+                        throw new RuntimeException("Invalid number of weights kept per neuron: " + pruneTopK);
+                     }
+                  }
+                  else if (!(prune[0].equals("no") && prune.length == 1))
+                  {
+                     throw new RuntimeException("Invalid pruning: \"" + line.substring(colonIndex + 2) + "\"");
+                  }
+               } // else if (label.equals("prune"))
+               else if (label.equals("pruneFineTune"))
+               {
+                  pruneFineTune = Integer.parseInt(line.substring(colonIndex + 2).trim());
+                  
+                  if (pruneFineTune < 0)
+                  {
+                     throw new RuntimeException("Invalid number of fine-tuning epochs: " + pruneFineTune);
+                  }
+               }
+               else if (label.equals("saveModel"))
+               {
+                  modelFilename = line.substring(colonIndex + 2);
+               }
+               else if (label.equals("checkpoint"))
+               {
+                  checkpointFilename = line.substring(colonIndex + 2);
+               }
+               else if (label.equals("checkpointEpochs"))
+               {
+                  checkpointEpochs = Integer.parseInt(line.substring(colonIndex + 2));
+               }
+               else if (label.equals("checkpointMinutes"))
+               {
+                  checkpointMinutes = Double.parseDouble(line.substring(colonIndex + 2));
+               }
+               else if (label.equals("resume"))
+               {
+                  String resumeCondition = line.substring(colonIndex + 2);
+                  
+                  if (resumeCondition.equals("yes"))
+                  {
+                     resume = true;
+                  }
+                  else if (!resumeCondition.equals("no"))
+                  {
+                     throw new RuntimeException("Invalid resume condition: \"" + resumeCondition + "\"");
+                  }
+               }
+               else if (label.equals("checkEvery"))
+               {
+                  checkEvery = Integer.parseInt(line.substring(colonIndex + 2));
+                  
+                  if (checkEvery < 1)
+                  {
+                     throw new RuntimeException("Invalid check cadence: \"" + checkEvery + "\"");
+                  }
+               }
+               else if (label.equals("checkSample"))
+               {
+                  checkSample = Integer.parseInt(line.substring(colonIndex + 2));
+                  
+                  if (checkSample < 0)
+                  {
+                     throw new RuntimeException("Invalid check sample size: \"" + checkSample + "\"");
+                  }
+               }
+               else if (label.equals("adaptiveLambda"))
+               {
+                  String[] factors = line.substring(colonIndex + 2).trim().split("\\s+");
+                  
+                  if (factors.length == 2 || factors.length == 3)
+                  {
+                     adaptiveLambda = true;
+                     lambdaGrowth = Double.parseDouble(factors[0]);
+                     lambdaShrink = Double.parseDouble(factors[1]);
+                     lambdaTolerance = factors.length == 3 ? Double.parseDouble(factors[2]) : 0.05;
+                     
+                     if (lambdaGrowth < 1.0 || lambdaShrink <= 0.0 || lambdaShrink >= 1.0 || lambdaTolerance < 0.0)
+                     {
+                        throw new RuntimeException("adaptiveLambda needs a growth factor of at least 1, "
+                              + "a shrink factor between 0 and 1 and a tolerance of at least 0");
+                     }
+                  }
+                  else if (!factors[0].equals("no"))
+                  {
+                     throw new RuntimeException("Invalid adaptive lambda condition: \"" + line.substring(colonIndex + 2) + "\"");
+                  }
+               } // else if (label.equals("adaptiveLambda"))
+               else if (label.equals("sparseInputs"))
+               {
+                  String sparse = line.substring(colonIndex + 2);
+                  
+                  if (sparse.equals("no"))
+                  {
+                     sparseInputs = false;
+                  }
+                  else if (!sparse.equals("yes"))
+                  {
+                     throw new RuntimeException("Invalid sparse inputs condition: \"" + sparse + "\"");
+                  }
+               }
+               else if (label.equals("optimizer"))
+               {
+                  String[] words = line.substring(colonIndex + 2).trim().split("\\s+");
+                  
+                  optimizerName = words[0];
+                  optimizerFactors = new double[words.length - 1];
+                  
+                  for (int f = 0; f < optimizerFactors.length; f++)
+                  {
+                     optimizerFactors[f] = Double.parseDouble(words[f + 1]);
+                  }
+               } // else if (label.equals("optimizer"))
+               else if (label.equals("seed"))
+               {
+                  if (weights != null)
+                  {
+                     throw new RuntimeException("seed must precede weights in file");
+                  }
+                  
+                  rng = new Random(Long.parseLong(line.substring(colonIndex + 2)));
+               }
                else
                {
                   throw new RuntimeException("Unrecognized configuration: \"" + label + "\"");
@@ -367,7 +679,90 @@ public class PerceptronConfigurer11
          } //if (!line.isEmpty())
       } //while (scan.hasNext())
       
-      scan.close();
+      if (activations == null && warmStart != null) // a warm start keeps the functions it was trained with
+      {
+         activations = warmStart.activations.clone();
+      }
+      
+      if (activations == null) // sigmoid everywhere by default
+      {
+         activations = new Activation[numActivs.length];
+         
+         for (int layer = 1; layer < numActivs.length; layer++)
+         {
+            activations[layer] = Activation.SIGMOID;
+         }
+      }
+      
+      for (int layer = 1; layer < numActivs.length && fastSigmoid; layer++)
+      {
+         if (activations[layer] == Activation.SIGMOID)
+         {
+            activations[layer] = Activation.FAST_SIGMOID;
+         }
+      }
+      
+      if (warmStart != null)
+      {
+         for (int layer = 1; layer < numActivs.length; layer++)
+         {
+            if (activations[layer] != warmStart.activations[layer])
+            {
+               throw new RuntimeException("The saved model was trained with " + warmStart.activations[layer] 
+                     + " in layer " + layer + ", not " + activations[layer]);
+            }
+         }
+         
+         if (!precisionGiven) // a warm start keeps the precision it was trained in
+         {
+            singlePrecision = warmStart.singlePrecision;
+         }
+         else if (singlePrecision != warmStart.singlePrecision)
+         {
+            throw new RuntimeException("The saved model was trained in " + (warmStart.singlePrecision ? "float" : "double") 
+                  + " precision, not " + (singlePrecision ? "float" : "double"));
+         }
+      } // if (warmStart != null)
+      
+      if (hogwild && batchSize > 1)
+      {
+         throw new RuntimeException("hogwild threads update the weights after every case; batchSize must be 1");
+      }
+      
+      if (checkpointFilename != null && checkpointEpochs == 0 && checkpointMinutes == 0)
+      {
+         checkpointMinutes = 10; // the default when the file only names the checkpoint
+      }
+      
+      if (resume && checkpointFilename == null)
+      {
+         throw new RuntimeException("resume needs a checkpoint file");
+      }
+      
+      if (singlePrecision)
+      {
+         checkFloatPrecision();
+      }
+      
+      if (hogwild && !optimizerName.equals("sgd"))
+      {
+         throw new RuntimeException("hogwild threads would update the optimizer's state without locks; it only trains with the sgd optimizer");
+      }
+      
+      if (adaptiveLambda && !optimizerName.equals("sgd"))
+      {
+         throw new RuntimeException("adaptiveLambda rolls back the weights but not the optimizer's state; it only trains with the sgd optimizer");
+      }
+      
+      if (dataset == null)
+      {
+         dataset = Dataset.of(inputs, targets);
+      }
+      
+      if (saveDatasetFilename != null)
+      {
+         dataset.save(new File(saveDatasetFilename));
+      }
       
       //this.printNumPic(inputs[0]);
 
@@ -375,6 +770,93 @@ public class PerceptronConfigurer11
       
    } // public PerceptronConfigurer11(File file) throws RuntimeException, FileNotFoundException, IOException
    
+   /**
+    * Checks that the configuration can be trained in float precision, which the constructor 
+    * does when the file asks for it; callers that switch singlePrecision on afterwards 
+    * (such as PrecisionTester11) call it themselves 
+    * 
+    * @throws RuntimeException if batchSize or threads is not 1, hogwild is on, or the optimizer is not sgd
+    */
+   public void checkFloatPrecision()
+   {
+      if (batchSize > 1 || threads > 1 || hogwild)
+      {
+         throw new RuntimeException("float precision only trains one case at a time on one thread; batchSize and threads must be 1, hogwild no");
+      }
+      
+      if (!optimizerName.equals("sgd"))
+      {
+         throw new RuntimeException("float precision only trains with the sgd optimizer");
+      }
+   } // public void checkFloatPrecision()
+   
+   /**
+    * Decodes a bitmap (see DibDump1), hand processes it if asked to, writes the result to 
+    * "DEBUG" + index + ".bmp", and scales its pels into [0,1], row by row. 
+    * If there is a bitmap cache and it already holds this image processed with the same color 
+    * depth and processing, its pels and DibDump1's headers are read from there instead, and 
+    * nothing is decoded or written. 
+    * 
+    * @param dib the DibDump1 that decodes and writes bitmaps
+    * @param image the name of the bitmap file
+    * @param index the index of the test case, which names its DEBUG bitmap
+    * @param handProcessing true if the image is hand processed (see handProcess)
+    * @return the scaled pels, row by row
+    * @throws IOException if an entry cannot be written to the bitmap cache
+    */
+   private double[] loadBitmap(DibDump1 dib, String image, int index, boolean handProcessing) throws IOException
+   {
+      String key = null;
+      
+      if (bitmapCache != null && new File(image).isFile())
+      {
+         key = BitmapCache.key(Files.readAllBytes(new File(image).toPath()), 
+               numBits + (handProcessing ? " hand" : " letter"));
+         
+         BitmapCache.Entry cached = bitmapCache.load(key);
+         
+         if (cached != null)
+         {
+            BitmapCache.restoreHeader(cached.header); // DibDump1.writeOut needs the headers decoding would have left
+            return cached.pels;
+         }
+      } // if (bitmapCache != null && new File(image).isFile())
+      
+      String[] arguments = {image};
+      dib.main(arguments);
+      
+      int[][] dibInputs = dib.imageArray;
+      
+      System.out.println();
+      
+      if (handProcessing)
+      {
+         dibInputs = this.handProcess(dibInputs);
+      }
+      
+      dib.writeOut(dibInputs, "DEBUG" + index + ".bmp");
+      
+      int rows = dibInputs.length;
+      int cols = dibInputs[0].length;
+      double[] pels = new double[rows * cols];
+      
+      // scale the extracted pel values
+      for (int i = 0; i < rows; i++) 
+      {
+         for (int j = 0; j < cols; j++) 
+         {
+            pels[i * cols + j] = scale((double)(dibInputs[i][j]));
+         }
+      }
+      
+      if (key != null)
+      {
+         bitmapCache.save(key, BitmapCache.header(), pels);
+      }
+      
+      return pels;
+   } // private double[] loadBitmap(DibDump1 dib, String image, int index, boolean handProcessing) throws IOException
+   
    /**
     * Cleans up an image of RBG pels
     * First, this method converts the image to grayscale, then extracts the blue
@@ -482,23 +964,20 @@ public class PerceptronConfigurer11
    }
    
    /**
-    * Fills a given array of random weights generated from a given range
+    * Fills a given packed array of weights with random weights generated from a given range
     * 
     * @param w8s the original array to fill with random weights
     * @param min the minimum value of random number generation
     * @param max the minimum value of random number generation
     * @return the updated weight array 
     */
-   private double[][][] propWeightsRand(double[][][] w8s, double min, double max) 
+   private double[][] propWeightsRand(double[][] w8s, double min, double max) 
    {
-      for (int i = 0; i < w8s.length; i++) 
+      for (int layer = 0; layer < w8s.length; layer++) 
       {
-         for (int j = 0; j < w8s[0].length; j++) 
+         for (int w = 0; w < w8s[layer].length; w++) 
          {
-            for (int k = 0; k < w8s[0][0].length; k++) 
-            {
-               w8s[i][j][k] = random(min, max);
-            }
+            w8s[layer][w] = random(min, max);
          }
       }
       return w8s;
@@ -513,7 +992,7 @@ public class PerceptronConfigurer11
     */
    private double random(double min, double max)
    {
-      return Math.random() * (max - min) + min;
+      return rng.nextDouble() * (max - min) + min;
    }
    
    /**
@@ -0,0 +1,107 @@
+package neuralnets;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * A tester class that trains each of a list of configuration files twice, once in
+ * double precision and once in float precision, starting from the same weights,
+ * and writes a comparison of the two runs to precisionReport.txt.
+ * The two runs of a file are logged to "logdouble_" and "logfloat_" + the file name.
+ *
+ * Usage: java neuralnets.PrecisionTester11 [configuration files]
+ * (a.txt, b.txt and d.txt if none are given)
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+public class PrecisionTester11
+{
+   /**
+    * Main method that trains every configuration in both precisions and writes the report.
+    *
+    * @param args the names of the configuration files to compare
+    * @throws FileNotFoundException
+    * @throws IOException BufferedWriter (output log file writing) failure
+    */
+   public static void main(String[] args) throws FileNotFoundException, IOException
+   {
+      String[] fileNames = args.length > 0 ? args : new String[] {"a.txt", "b.txt", "d.txt"};
+
+      BufferedWriter report = new BufferedWriter(new FileWriter("precisionReport.txt"));
+
+      report.write("Kernels: " + Kernels.KERNELS.name() + "\n\n");
+
+      for (String fileName : fileNames)
+      {
+         PerceptronConfigurer11 config = new PerceptronConfigurer11(new File(fileName));
+         String incompatible = null; // why the file cannot be trained in float, if it cannot
+
+         try
+         {
+            config.checkFloatPrecision(); // the file did not ask for float, so the constructor did not check
+         }
+         catch (RuntimeException e)
+         {
+            incompatible = e.getMessage();
+         }
+
+         if (incompatible != null)
+         {
+            report.write(fileName + ": skipped (" + incompatible + ")\n\n");
+         }
+         else
+         {
+            // both runs start from the weights in the file (or drawn from its seed)
+            double[][] initialWeights = new double[config.weights.length][];
+
+            for (int layer = 0; layer < initialWeights.length; layer++)
+            {
+               initialWeights[layer] = config.weights[layer].clone();
+            }
+
+            long weightCount = 0;
+
+            for (double[] layerWeights : initialWeights)
+            {
+               weightCount += layerWeights.length;
+            }
+
+            report.write(fileName + " (" + weightCount + " weights, errorThreshold " + config.errorThreshold + ")\n");
+
+            for (int run = 0; run < 2; run++)
+            {
+               boolean singlePrecision = run == 1;
+               String precision = singlePrecision ? "float" : "double";
+
+               config.singlePrecision = singlePrecision;
+               config.weights = new double[initialWeights.length][];
+
+               for (int layer = 0; layer < initialWeights.length; layer++)
+               {
+                  config.weights[layer] = initialWeights[layer].clone();
+               }
+
+               Perceptron11 network = new Perceptron11(config, "log" + precision + "_" + fileName);
+               network.run();
+
+               report.write(String.format("   %-6s  iterations: %-7d  max error: %-12.6g  converged: %-3s  "
+                     + "cases/sec: %-10.1f  weight bytes: %d\n",
+                     precision, network.iterations, network.maxError,
+                     network.maxError < config.errorThreshold ? "yes" : "no",
+                     network.casesPerSecond, weightCount * (singlePrecision ? Float.BYTES : Double.BYTES)));
+            } // for (int run = 0; run < 2; run++)
+
+            report.write("\n");
+         } // else clause where the file can be trained in float precision
+      } // for (String fileName : fileNames)
+
+      report.close();
+
+      System.out.println("Done. Comparison written to precisionReport.txt");
+   } // public static void main(String[] args) throws FileNotFoundException, IOException
+
+} // public class PrecisionTester11
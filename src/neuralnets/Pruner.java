@@ -0,0 +1,171 @@
+package neuralnets;
+import java.util.Arrays;
+
+/**
+ * Magnitude pruning of trained weights: sets the weights that matter least to exactly
+ * zero, so that the network can be stored and propagated as a SparseNetwork. Either every
+ * weight whose magnitude is below a threshold is pruned, or only the k weights of largest
+ * magnitude entering each neuron are kept (the same number for every neuron, which keeps
+ * every row of the sparse layers the same length).
+ *
+ * Both return the index of every pruned weight, layer by layer, so that fine-tuning can
+ * set them back to zero after each update (see zero).
+ *
+ * Methods included:
+ * int[][] pruneBelow(double[][] weights, double threshold)
+ * int[][] keepLargest(double[][] weights, int[] numActivs, int k)
+ * void    zero(double[][] weights, int[][] pruned)
+ * void    zero(float[][] weights, int[][] pruned)
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+final class Pruner
+{
+   /**
+    * Not to be created; every method is static
+    */
+   private Pruner()
+   {
+   }
+
+   /**
+    * Sets every weight whose magnitude is below a threshold to zero
+    *
+    * @param weights the weights, packed as in Perceptron11; changed in place
+    * @param threshold the smallest magnitude a weight keeps
+    * @return indices: layer, n; the index in its layer of every pruned weight, in increasing order
+    */
+   static int[][] pruneBelow(double[][] weights, double threshold)
+   {
+      int[][] pruned = new int[weights.length][];
+
+      for (int layer = 0; layer < weights.length; layer++)
+      {
+         double[] layerWeights = weights[layer];
+         int[] found = new int[layerWeights.length];
+         int count = 0;
+
+         for (int w = 0; w < layerWeights.length; w++)
+         {
+            if (Math.abs(layerWeights[w]) < threshold)
+            {
+               layerWeights[w] = 0.0;
+               found[count++] = w;
+            }
+         }
+
+         pruned[layer] = Arrays.copyOf(found, count);
+      } // for (int layer = 0; layer < weights.length; layer++)
+
+      return pruned;
+   } // static int[][] pruneBelow(double[][] weights, double threshold)
+
+   /**
+    * Keeps only the k weights of largest magnitude entering each neuron and sets the rest
+    * to zero. Of weights with equal magnitudes, the ones from the first left neurons are kept.
+    * Neurons with no more than k weights entering them keep them all.
+    *
+    * @param weights the weights, packed as in Perceptron11; changed in place
+    * @param numActivs numActivs[n] = number of activations in layer n (layer 0 = inputs)
+    * @param k the number of weights each neuron keeps
+    * @return indices: layer, n; the index in its layer of every pruned weight, in increasing order
+    */
+   static int[][] keepLargest(double[][] weights, int[] numActivs, int k)
+   {
+      int[][] pruned = new int[weights.length][];
+
+      for (int layer = 0; layer < weights.length; layer++)
+      {
+         double[] layerWeights = weights[layer];
+         int numLeft = numActivs[layer];
+         int[] found = new int[layerWeights.length];
+         double[] magnitudes = new double[numLeft];
+         int count = 0;
+
+         for (int right = 0; right < numActivs[layer + 1] && k < numLeft; right++)
+         {
+            int row = right * numLeft;
+
+            for (int left = 0; left < numLeft; left++)
+            {
+               magnitudes[left] = Math.abs(layerWeights[row + left]);
+            }
+
+            Arrays.sort(magnitudes);
+
+            double smallestKept = magnitudes[numLeft - k];
+            int larger = 0; // the weights strictly larger than smallestKept, which are always kept
+
+            for (int left = numLeft - k; left < numLeft; left++)
+            {
+               if (magnitudes[left] > smallestKept)
+               {
+                  larger++;
+               }
+            }
+
+            int tiesKept = k - larger;
+
+            for (int left = 0; left < numLeft; left++)
+            {
+               double magnitude = Math.abs(layerWeights[row + left]);
+
+               if (magnitude == smallestKept && tiesKept > 0)
+               {
+                  tiesKept--;
+               }
+               else if (magnitude <= smallestKept)
+               {
+                  layerWeights[row + left] = 0.0;
+                  found[count++] = row + left;
+               }
+            }
+         } // for (int right = 0; right < numActivs[layer + 1] && k < numLeft; right++)
+
+         pruned[layer] = Arrays.copyOf(found, count);
+      } // for (int layer = 0; layer < weights.length; layer++)
+
+      return pruned;
+   } // static int[][] keepLargest(double[][] weights, int[] numActivs, int k)
+
+   /**
+    * Sets the pruned weights back to zero, after training has changed them
+    *
+    * @param weights the weights, packed as in Perceptron11
+    * @param pruned indices: layer, n; the pruned weights, as returned by pruneBelow or keepLargest
+    */
+   static void zero(double[][] weights, int[][] pruned)
+   {
+      for (int layer = 0; layer < weights.length; layer++)
+      {
+         double[] layerWeights = weights[layer];
+
+         for (int w : pruned[layer])
+         {
+            layerWeights[w] = 0.0;
+         }
+      }
+   }
+
+   /**
+    * Sets the pruned weights back to zero, for the float weights of single precision training
+    *
+    * @param weights the float weights, packed as in Perceptron11
+    * @param pruned indices: layer, n; the pruned weights, as returned by pruneBelow or keepLargest
+    */
+   static void zero(float[][] weights, int[][] pruned)
+   {
+      for (int layer = 0; layer < weights.length; layer++)
+      {
+         float[] layerWeights = weights[layer];
+
+         for (int w : pruned[layer])
+         {
+            layerWeights[w] = 0.0f;
+         }
+      }
+   }
+
+} // final class Pruner
@@ -0,0 +1,228 @@
+package neuralnets;
+
+/**
+ * A trained network with its weights quantized to 8 or 16 bit integers, for fast
+ * forward passes once training is over. Each layer of weights gets one scale factor
+ * (symmetric quantization): a weight w is stored as round(w / scale), where scale is
+ * the largest |w| in the layer divided by the largest integer (127 or 32767).
+ *
+ * Propagation is done in integers too. The activations entering each layer are
+ * quantized the same way, with a scale found from the largest activation of the case,
+ * so every theta is one integer dot product multiplied by the two scales. Only the
+ * wrapper functions are computed in double. The int8 dot products are summed in an int,
+ * which cannot overflow below about 130000 activations per layer; the int16 ones in a long.
+ *
+ * The weights take 1 (or 2) bytes each instead of the 8 of a double. The outputs are not
+ * exactly those of the double network: Perceptron11 logs the largest difference over the
+ * training cases when a configuration asks for quantization.
+ *
+ * Not thread-safe: the scratch arrays are shared by every call to propagate.
+ *
+ * Methods included:
+ * QuantizedNetwork(int[] numActivs, double[][] weights, Activation[] activations, int bits)
+ * double[] propagate(double[] inputs, double[] outputs)
+ * long     weightBytes()
+ * int      bits()
+ * double   quantize(double[] values, int n, byte[] bytes, short[] shorts)
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+public final class QuantizedNetwork
+{
+   private final int[] numActivs; // numActivs[n] = number of activations in layer n (layer 0 = inputs)
+   private final Activation[] activations; // indices: layer; the wrapper function of each layer
+   private final int bits; // 8 or 16
+   private final int maxInt; // the largest quantized value, 127 or 32767
+   private final byte[][] weights8; // indices: layer, right * numActivs[layer] + left; only used with 8 bits
+   private final short[][] weights16; // indices: same as weights8; only used with 16 bits
+   private final double[] scales; // indices: layer; the value of one step of that layer's quantized weights
+
+   private final double[] thetas; // scratch for one layer's thetas
+   private final double[] activs; // scratch for one layer's activations
+   private final byte[] activs8; // scratch for one layer's quantized activations (8 bits)
+   private final short[] activs16; // scratch for one layer's quantized activations (16 bits)
+
+   /**
+    * Quantizes a set of trained weights
+    *
+    * @param numActivs numActivs[n] = number of activations in layer n (layer 0 = inputs)
+    * @param weights the trained weights, packed as in Perceptron11 ([layer][right * numActivs[layer] + left])
+    * @param activations the wrapper function of each layer (layer 0 has none)
+    * @param bits the size of each quantized value, 8 or 16
+    * @throws RuntimeException if bits is neither 8 nor 16
+    */
+   public QuantizedNetwork(int[] numActivs, double[][] weights, Activation[] activations, int bits)
+   {
+      if (bits != 8 && bits != 16)
+      {
+         throw new RuntimeException("Invalid number of quantization bits: " + bits);
+      }
+
+      this.numActivs = numActivs.clone();
+      this.activations = activations.clone();
+      this.bits = bits;
+      this.maxInt = bits == 8 ? Byte.MAX_VALUE : Short.MAX_VALUE;
+
+      scales = new double[weights.length];
+      weights8 = bits == 8 ? new byte[weights.length][] : null;
+      weights16 = bits == 16 ? new short[weights.length][] : null;
+
+      int maxActivs = 0;
+
+      for (int layer = 0; layer < numActivs.length; layer++)
+      {
+         maxActivs = Math.max(maxActivs, numActivs[layer]);
+      }
+
+      for (int layer = 0; layer < weights.length; layer++)
+      {
+         int n = weights[layer].length;
+
+         if (bits == 8)
+         {
+            weights8[layer] = new byte[n];
+         }
+         else
+         {
+            weights16[layer] = new short[n];
+         }
+
+         scales[layer] = quantize(weights[layer], n, bits == 8 ? weights8[layer] : null,
+               bits == 16 ? weights16[layer] : null);
+      } // for (int layer = 0; layer < weights.length; layer++)
+
+      thetas = new double[maxActivs];
+      activs = new double[maxActivs];
+      activs8 = bits == 8 ? new byte[maxActivs] : null;
+      activs16 = bits == 16 ? new short[maxActivs] : null;
+   } // public QuantizedNetwork(int[] numActivs, double[][] weights, Activation[] activations, int bits)
+
+   /**
+    * Propagates one case through the quantized network
+    *
+    * @param inputs the inputs of the case
+    * @param outputs the array the outputs are copied into; must hold the whole output layer
+    * @return the given outputs array
+    */
+   public double[] propagate(double[] inputs, double[] outputs)
+   {
+      int numLeft = numActivs[0];
+
+      for (int i = 0; i < numLeft; i++)
+      {
+         activs[i] = inputs[i];
+      }
+
+      for (int layer = 1; layer < numActivs.length; layer++)
+      {
+         double activScale = quantize(activs, numLeft, activs8, activs16);
+         double scale = activScale * scales[layer - 1];
+
+         for (int right = 0; right < numActivs[layer]; right++)
+         {
+            int row = right * numLeft;
+
+            if (bits == 8)
+            {
+               byte[] layerWeights = weights8[layer - 1];
+               int dot = 0;
+
+               for (int left = 0; left < numLeft; left++)
+               {
+                  dot += activs8[left] * layerWeights[row + left];
+               }
+
+               thetas[right] = dot * scale;
+            } // if (bits == 8)
+            else
+            {
+               short[] layerWeights = weights16[layer - 1];
+               long dot = 0;
+
+               for (int left = 0; left < numLeft; left++)
+               {
+                  dot += activs16[left] * layerWeights[row + left];
+               }
+
+               thetas[right] = dot * scale;
+            } // else clause where bits == 16
+         } // for (int right = 0; right < numActivs[layer]; right++)
+
+         numLeft = numActivs[layer];
+         activations[layer].activate(thetas, activs, 0, numLeft - 1);
+      } // for (int layer = 1; layer < numActivs.length; layer++)
+
+      System.arraycopy(activs, 0, outputs, 0, numLeft);
+
+      return outputs;
+   } // public double[] propagate(double[] inputs, double[] outputs)
+
+   /**
+    * Finds the memory the quantized weights take up
+    *
+    * @return the number of bytes of weights
+    */
+   public long weightBytes()
+   {
+      long bytes = 0;
+
+      for (int layer = 0; layer < scales.length; layer++)
+      {
+         bytes += (long)numActivs[layer] * numActivs[layer + 1] * (bits / 8);
+      }
+
+      return bytes;
+   }
+
+   /**
+    * Gets the size of each quantized value
+    *
+    * @return 8 or 16
+    */
+   public int bits()
+   {
+      return bits;
+   }
+
+   /**
+    * Quantizes the first n values of an array with one scale factor chosen so that the
+    * value of largest magnitude becomes maxInt (or -maxInt). Writes into whichever of
+    * the byte or short arrays matches the number of bits.
+    *
+    * @param values the values to quantize
+    * @param n the number of values to quantize
+    * @param bytes where the values are stored with 8 bits (null with 16 bits)
+    * @param shorts where the values are stored with 16 bits (null with 8 bits)
+    * @return the scale: the value of one step of the quantized values
+    */
+   private double quantize(double[] values, int n, byte[] bytes, short[] shorts)
+   {
+      double maxAbs = 0.0;
+
+      for (int i = 0; i < n; i++)
+      {
+         maxAbs = Math.max(maxAbs, Math.abs(values[i]));
+      }
+
+      double scale = maxAbs > 0.0 ? maxAbs / maxInt : 1.0; // all zeros quantize to zeros with any scale
+
+      for (int i = 0; i < n; i++)
+      {
+         long quantized = Math.round(values[i] / scale);
+
+         if (bits == 8)
+         {
+            bytes[i] = (byte)quantized;
+         }
+         else
+         {
+            shorts[i] = (short)quantized;
+         }
+      }
+
+      return scale;
+   } // private double quantize(double[] values, int n, byte[] bytes, short[] shorts)
+
+} // public final class QuantizedNetwork
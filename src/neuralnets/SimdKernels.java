@@ -0,0 +1,212 @@
+package neuralnets;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels built on the incubating Java Vector API, which the JIT compiles to the
+ * widest SIMD instructions the CPU supports (for example 4 doubles per AVX2
+ * instruction, 8 per AVX-512 instruction). Each loop handles whole vectors first
+ * and finishes the leftover tail with scalar code.
+ *
+ * Only loaded (by Kernels.select()) when the jdk.incubator.vector module is present.
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+final class SimdKernels extends Kernels
+{
+   private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+   private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED; // twice as many lanes
+
+   /**
+    * Creates the SIMD kernels
+    *
+    * @throws UnsupportedOperationException if the CPU cannot hold more than one double per vector
+    */
+   SimdKernels()
+   {
+      if (SPECIES.length() < 2)
+      {
+         throw new UnsupportedOperationException("no SIMD support for doubles");
+      }
+   }
+
+   @Override
+   public double dot(double[] a, int aOffset, double[] b, int bOffset, int n)
+   {
+      DoubleVector sums = DoubleVector.zero(SPECIES);
+      int bound = SPECIES.loopBound(n);
+      int i = 0;
+
+      for (; i < bound; i += SPECIES.length())
+      {
+         DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+         DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+
+         sums = sums.add(va.mul(vb));
+      }
+
+      double dot = sums.reduceLanes(VectorOperators.ADD);
+
+      for (; i < n; i++)
+      {
+         dot += a[aOffset + i] * b[bOffset + i];
+      }
+
+      return dot;
+   } // public double dot(double[] a, int aOffset, double[] b, int bOffset, int n)
+
+   @Override
+   public void dot4(double[] a, int aOffset, int aStride, double[] b, int bOffset, int n, double[] c, int cOffset, int cStride)
+   {
+      int a1 = aOffset + aStride;
+      int a2 = a1 + aStride;
+      int a3 = a2 + aStride;
+      DoubleVector sums0 = DoubleVector.zero(SPECIES);
+      DoubleVector sums1 = DoubleVector.zero(SPECIES);
+      DoubleVector sums2 = DoubleVector.zero(SPECIES);
+      DoubleVector sums3 = DoubleVector.zero(SPECIES);
+      int bound = SPECIES.loopBound(n);
+      int i = 0;
+
+      // each of the four sums follows dot exactly: the same lanes, the same reduction, the same tail
+      for (; i < bound; i += SPECIES.length())
+      {
+         DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+
+         sums0 = sums0.add(DoubleVector.fromArray(SPECIES, a, aOffset + i).mul(vb));
+         sums1 = sums1.add(DoubleVector.fromArray(SPECIES, a, a1 + i).mul(vb));
+         sums2 = sums2.add(DoubleVector.fromArray(SPECIES, a, a2 + i).mul(vb));
+         sums3 = sums3.add(DoubleVector.fromArray(SPECIES, a, a3 + i).mul(vb));
+      }
+
+      double dot0 = sums0.reduceLanes(VectorOperators.ADD);
+      double dot1 = sums1.reduceLanes(VectorOperators.ADD);
+      double dot2 = sums2.reduceLanes(VectorOperators.ADD);
+      double dot3 = sums3.reduceLanes(VectorOperators.ADD);
+
+      for (; i < n; i++)
+      {
+         double bi = b[bOffset + i];
+
+         dot0 += a[aOffset + i] * bi;
+         dot1 += a[a1 + i] * bi;
+         dot2 += a[a2 + i] * bi;
+         dot3 += a[a3 + i] * bi;
+      }
+
+      c[cOffset] = dot0;
+      c[cOffset + cStride] = dot1;
+      c[cOffset + 2 * cStride] = dot2;
+      c[cOffset + 3 * cStride] = dot3;
+   } // public void dot4(double[] a, int aOffset, int aStride, double[] b, int bOffset, int n, double[] c, int cOffset, int cStride)
+
+   @Override
+   public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int n)
+   {
+      DoubleVector valpha = DoubleVector.broadcast(SPECIES, alpha);
+      int bound = SPECIES.loopBound(n);
+      int i = 0;
+
+      // a separate multiply and add (not a fused multiply-add) so every element matches the scalar kernel exactly
+      for (; i < bound; i += SPECIES.length())
+      {
+         DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+         DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+
+         vy.add(valpha.mul(vx)).intoArray(y, yOffset + i);
+      }
+
+      for (; i < n; i++)
+      {
+         y[yOffset + i] += alpha * x[xOffset + i];
+      }
+   } // public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int n)
+
+   @Override
+   public float dot(float[] a, int aOffset, float[] b, int bOffset, int n)
+   {
+      FloatVector sums = FloatVector.zero(FLOAT_SPECIES);
+      int bound = FLOAT_SPECIES.loopBound(n);
+      int i = 0;
+
+      for (; i < bound; i += FLOAT_SPECIES.length())
+      {
+         FloatVector va = FloatVector.fromArray(FLOAT_SPECIES, a, aOffset + i);
+         FloatVector vb = FloatVector.fromArray(FLOAT_SPECIES, b, bOffset + i);
+
+         sums = sums.add(va.mul(vb));
+      }
+
+      float dot = sums.reduceLanes(VectorOperators.ADD);
+
+      for (; i < n; i++)
+      {
+         dot += a[aOffset + i] * b[bOffset + i];
+      }
+
+      return dot;
+   } // public float dot(float[] a, int aOffset, float[] b, int bOffset, int n)
+
+   @Override
+   public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int n)
+   {
+      FloatVector valpha = FloatVector.broadcast(FLOAT_SPECIES, alpha);
+      int bound = FLOAT_SPECIES.loopBound(n);
+      int i = 0;
+
+      for (; i < bound; i += FLOAT_SPECIES.length())
+      {
+         FloatVector vx = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + i);
+         FloatVector vy = FloatVector.fromArray(FLOAT_SPECIES, y, yOffset + i);
+
+         vy.add(valpha.mul(vx)).intoArray(y, yOffset + i);
+      }
+
+      for (; i < n; i++)
+      {
+         y[yOffset + i] += alpha * x[xOffset + i];
+      }
+   } // public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int n)
+
+   /**
+    * Sums one vector dot product per run. A vector of sums carried from run to run would
+    * be cheaper in principle, but the JIT cannot keep a vector in registers across the
+    * outer loop and allocates it instead, which makes the whole kernel slower than dense.
+    */
+   @Override
+   public double sparseDot(double[] a, int[] runs, double[] b, int bOffset)
+   {
+      double dot = 0.0;
+
+      for (int r = 0; r < runs.length; r += 2)
+      {
+         dot += dot(a, runs[r], b, bOffset + runs[r], runs[r + 1] - runs[r]);
+      }
+
+      return dot;
+   }
+
+   @Override
+   public float sparseDot(float[] a, int[] runs, float[] b, int bOffset)
+   {
+      float dot = 0.0f;
+
+      for (int r = 0; r < runs.length; r += 2)
+      {
+         dot += dot(a, runs[r], b, bOffset + runs[r], runs[r + 1] - runs[r]);
+      }
+
+      return dot;
+   }
+
+   @Override
+   public String name()
+   {
+      return "SIMD (" + SPECIES.length() + " doubles or " + FLOAT_SPECIES.length() + " floats per vector)";
+   }
+
+} // final class SimdKernels
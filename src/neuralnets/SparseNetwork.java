@@ -0,0 +1,199 @@
+package neuralnets;
+
+/**
+ * A trained network whose weights have mostly been pruned to zero, stored in compressed
+ * sparse row (CSR) form for fast forward passes once training is over. Each layer keeps
+ * only its nonzero weights: the weights entering neuron right are
+ *
+ *    values[layer][p], from left neuron columns[layer][p], for p from rowStarts[layer][right]
+ *    up to (not including) rowStarts[layer][right + 1]
+ *
+ * so a theta costs one multiply per surviving weight instead of one per left neuron, and
+ * the layer takes 12 bytes per surviving weight (a double and an int) instead of 8 per weight.
+ * The weights of each row keep the order of the left neurons, and the products are summed in
+ * that order, so the outputs are exactly those of the scalar dense forward pass over the
+ * same (pruned) weights.
+ *
+ * Like Model, a SparseNetwork never changes once created, and any number of threads can
+ * call predict at the same time; each thread propagates through its own scratch arrays.
+ *
+ * Methods included:
+ * SparseNetwork(int[] numActivs, double[][] weights, Activation[] activations)
+ * double[] predict(double[] inputs, double[] outputs)
+ * long     nonzeroWeights()
+ * long     weightBytes()
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+public final class SparseNetwork
+{
+   private final int[] numActivs; // numActivs[n] = number of activations in layer n (layer 0 = inputs)
+   private final Activation[] activations; // indices: layer; the wrapper function of each layer (layer 0 has none)
+   private final int[][] rowStarts; // indices: layer, right; where each row starts in columns and values (numRight + 1 each)
+   private final int[][] columns; // indices: layer, p; the left neuron of each nonzero weight
+   private final double[][] values; // indices: layer, p; the nonzero weights, row by row
+
+   private final ThreadLocal<double[][]> scratch; // per thread; indices: layer, row (the last array holds thetas)
+
+   /**
+    * Compresses a set of (pruned) weights, keeping only the ones that are not zero
+    *
+    * @param numActivs numActivs[n] = number of activations in layer n (layer 0 = inputs)
+    * @param weights the weights, packed as in Perceptron11 ([layer][right * numActivs[layer] + left])
+    * @param activations the wrapper function of each layer (layer 0 has none)
+    */
+   public SparseNetwork(int[] numActivs, double[][] weights, Activation[] activations)
+   {
+      this.numActivs = numActivs.clone();
+      this.activations = activations.clone();
+
+      rowStarts = new int[weights.length][];
+      columns = new int[weights.length][];
+      values = new double[weights.length][];
+
+      int maxActivs = 0;
+
+      for (int layer = 0; layer < numActivs.length; layer++)
+      {
+         maxActivs = Math.max(maxActivs, numActivs[layer]);
+      }
+
+      for (int layer = 0; layer < weights.length; layer++)
+      {
+         int numLeft = numActivs[layer];
+         int numRight = numActivs[layer + 1];
+         int nonzeros = 0;
+
+         for (double weight : weights[layer])
+         {
+            if (weight != 0.0)
+            {
+               nonzeros++;
+            }
+         }
+
+         rowStarts[layer] = new int[numRight + 1];
+         columns[layer] = new int[nonzeros];
+         values[layer] = new double[nonzeros];
+
+         int p = 0;
+
+         for (int right = 0; right < numRight; right++)
+         {
+            rowStarts[layer][right] = p;
+
+            for (int left = 0; left < numLeft; left++)
+            {
+               double weight = weights[layer][right * numLeft + left];
+
+               if (weight != 0.0)
+               {
+                  columns[layer][p] = left;
+                  values[layer][p] = weight;
+                  p++;
+               }
+            }
+         } // for (int right = 0; right < numRight; right++)
+
+         rowStarts[layer][numRight] = p;
+      } // for (int layer = 0; layer < weights.length; layer++)
+
+      int layers = numActivs.length;
+      int thetaLength = maxActivs;
+
+      scratch = ThreadLocal.withInitial(() ->
+      {
+         double[][] arrays = new double[layers + 1][];
+
+         for (int layer = 0; layer < layers; layer++)
+         {
+            arrays[layer] = new double[this.numActivs[layer]];
+         }
+
+         arrays[layers] = new double[thetaLength];
+
+         return arrays;
+      });
+   } // public SparseNetwork(int[] numActivs, double[][] weights, Activation[] activations)
+
+   /**
+    * Propagates one case through the network. Safe to call from many threads at once.
+    *
+    * @param inputs the inputs of the case; must hold at least numActivs[0] values
+    * @param outputs the array the outputs are copied into; must hold the whole output layer
+    * @return the given outputs array
+    */
+   public double[] predict(double[] inputs, double[] outputs)
+   {
+      double[][] activs = scratch.get();
+      double[] thetas = activs[numActivs.length];
+
+      System.arraycopy(inputs, 0, activs[0], 0, numActivs[0]);
+
+      for (int layer = 1; layer < numActivs.length; layer++)
+      {
+         double[] leftActivs = activs[layer - 1];
+         int[] starts = rowStarts[layer - 1];
+         int[] layerColumns = columns[layer - 1];
+         double[] layerValues = values[layer - 1];
+
+         for (int right = 0; right < numActivs[layer]; right++)
+         {
+            double theta = 0.0;
+
+            for (int p = starts[right]; p < starts[right + 1]; p++)
+            {
+               theta += layerValues[p] * leftActivs[layerColumns[p]];
+            }
+
+            thetas[right] = theta;
+         }
+
+         activations[layer].activate(thetas, activs[layer], 0, numActivs[layer] - 1);
+      } // for (int layer = 1; layer < numActivs.length; layer++)
+
+      int outputLayer = numActivs.length - 1;
+
+      System.arraycopy(activs[outputLayer], 0, outputs, 0, numActivs[outputLayer]);
+
+      return outputs;
+   } // public double[] predict(double[] inputs, double[] outputs)
+
+   /**
+    * Counts the weights that survived pruning
+    *
+    * @return the number of nonzero weights in every layer
+    */
+   public long nonzeroWeights()
+   {
+      long nonzeros = 0;
+
+      for (double[] layerValues : values)
+      {
+         nonzeros += layerValues.length;
+      }
+
+      return nonzeros;
+   }
+
+   /**
+    * Finds the memory the compressed weights take up
+    *
+    * @return the number of bytes of values, column indices and row starts
+    */
+   public long weightBytes()
+   {
+      long bytes = 0;
+
+      for (int layer = 0; layer < values.length; layer++)
+      {
+         bytes += (long)values[layer].length * (Double.BYTES + Integer.BYTES)
+               + (long)rowStarts[layer].length * Integer.BYTES;
+      }
+
+      return bytes;
+   }
+
+} // public final class SparseNetwork
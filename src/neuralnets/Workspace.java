@@ -0,0 +1,62 @@
+package neuralnets;
+
+/**
+ * Scratch arrays for propagating and back propagating a block of test cases.
+ * Each worker thread owns one Workspace, so workers never write to each other's
+ * activations, psis or gradients; the only shared state is the weights, which
+ * are read-only until every worker has finished its block.
+ *
+ * Every matrix holds one row per case, so the value for case c and row n of a
+ * layer lives at [layer][c * numActivs[layer] + n].
+ *
+ * @author Ellen Guo
+ * @version 10 January 2020
+ *
+ */
+final class Workspace
+{
+   final double[][] activs; // indices: layer, case * numActivs[layer] + row
+   final double[][] thetas; // indices: same as activs
+   final double[][] psis; // indices: same as activs
+   final double[][] gradients; // indices: same as the weights; summed across the block of cases (null unless batched)
+   final double[] scratch; // one layer's worth of temporary values for every case
+   final double[] targets; // indices: case * numOutputs + output; the targets of the cases in activs[0]
+   int[] nonzeros; // the runs of nonzero inputs of the case in activs[0] (see Kernels.sparseDot), or null if dense
+
+   /**
+    * Creates a Workspace big enough for a given number of cases
+    *
+    * @param numActivs numActivs[n] = number of activations in layer n (layer 0 = inputs)
+    * @param cases the maximum number of cases that will be propagated at once
+    * @param batched true if the workspace sums the gradients of a mini-batch shard, which needs
+    *                a full copy of the weights; false for one-case and hogwild workspaces
+    */
+   Workspace(int[] numActivs, int cases, boolean batched)
+   {
+      int layers = numActivs.length;
+      int maxActivs = 0;
+
+      activs = new double[layers][];
+      thetas = new double[layers][];
+      psis = new double[layers][];
+      gradients = batched ? new double[layers - 1][] : null;
+
+      for (int layer = 0; layer < layers; layer++)
+      {
+         activs[layer] = new double[cases * numActivs[layer]];
+         thetas[layer] = new double[cases * numActivs[layer]];
+         psis[layer] = new double[cases * numActivs[layer]];
+
+         maxActivs = Math.max(maxActivs, numActivs[layer]);
+      }
+
+      scratch = new double[cases * maxActivs];
+      targets = new double[cases * numActivs[layers - 1]];
+
+      for (int layer = 0; batched && layer < layers - 1; layer++)
+      {
+         gradients[layer] = new double[numActivs[layer] * numActivs[layer + 1]];
+      }
+   } // Workspace(int[] numActivs, int cases, boolean batched)
+
+} // final class Workspace